@@ -20,6 +20,7 @@ import org.gradle.api.DefaultTask
 import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.InputFile
 import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
 import org.gradle.api.tasks.Optional
 import org.gradle.api.tasks.OutputDirectory
 import org.gradle.api.tasks.TaskAction
@@ -54,6 +55,10 @@ open class XDDLGenerateTask : DefaultTask() {
     @Input
     lateinit var plugin: String
 
+    /** Parsed include files are cached here between builds; set to null to read them every time. */
+    @Internal
+    var parseCacheDirectory: File? = File(project.buildDir, "xddl-parse-cache")
+
     @TaskAction
     fun apply() {
         GenerateRunner
@@ -64,6 +69,7 @@ open class XDDLGenerateTask : DefaultTask() {
                 .includes(includeDirectories)
                 .outputDirectory(outputDirectory)
                 .plugins(Collections.singletonList(plugin))
+                .parseCache(parseCacheDirectory)
                 .build()
                 .run()
     }
@@ -26,6 +26,7 @@ import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.InputDirectory
 import org.gradle.api.tasks.InputFile
 import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
 import org.gradle.api.tasks.Optional
 import org.gradle.api.tasks.OutputDirectory
 import org.gradle.api.tasks.OutputFiles
@@ -62,8 +63,29 @@ open class XDDLGlideTask : DefaultTask() {
     @OutputDirectory
     var outputDirectory: File = File(project.buildDir, "glide")
 
-    @OutputFiles
-    var outputFiles: ArrayList<File> = ArrayList()
+    /** The unified baseline and versions, oldest first, as named from the patch directories. */
+    @get:OutputFiles
+    val outputFiles: List<File>
+        get() {
+            @Suppress("ReplaceJavaStaticMethodWithKotlinAnalog")
+            val versions = neverNull(patchesDirectory.listFiles { f -> f.isDirectory })
+                    .sortedBy { f -> SemanticVersion(f.name) }
+                    .map { f -> File(outputDirectory, f.name.replace('.', '_') + ".xddl.json") }
+            return listOf(File(outputDirectory, "baseline.xddl.json")) + versions
+        }
+
+    /** The record of each version's inputs, which lets an unchanged version be reused. */
+    @get:OutputFiles
+    val inputRecords: List<File>
+        get() = outputFiles.map { f -> GlideRunner.inputsFile(f) }
+
+    /** Records each version's previous unified file as ext.glide.previous, for the migrate plugin. */
+    @Input
+    var recordPrevious: Boolean = false
+
+    /** Parsed include files are cached here between builds; set to null to read them every time. */
+    @Internal
+    var parseCacheDirectory: File? = File(project.buildDir, "xddl-parse-cache")
 
     @TaskAction
     fun apply() {
@@ -77,20 +99,12 @@ open class XDDLGlideTask : DefaultTask() {
                                 .valsFile(valsFile)
                                 .patches(patchesDirectory)
                                 .outputDirectory(outputDirectory)
+                                .parseCache(parseCacheDirectory)
+                                .recordPrevious(recordPrevious)
                                 .build()
                 )
                 .build()
                 .run()
-        @Suppress("ReplaceJavaStaticMethodWithKotlinAnalog")
-        val fileArray = neverNull(outputDirectory.listFiles { f ->
-            f.name.endsWith(".xddl.json")
-        })
-        val sorted = fileArray.sortedBy { f ->
-            if (f.name.startsWith("baseline")) SemanticVersion("0")
-            else SemanticVersion(f.name.substring(0, f.name.indexOf('.'))
-                    .replace('_', '.'))
-        }
-        outputFiles.addAll(sorted)
 
         project.version = Loader.mapper()
                 .readValue(outputFiles.last(), Specification::class.java)
@@ -21,6 +21,7 @@ import org.gradle.api.DefaultTask
 import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.InputFile
 import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
 import org.gradle.api.tasks.Optional
 import org.gradle.api.tasks.OutputFile
 import org.gradle.api.tasks.TaskAction
@@ -50,6 +51,10 @@ open class XDDLUnifyTask : DefaultTask() {
     @Input
     lateinit var newVersion: String
 
+    /** Parsed include files are cached here between builds; set to null to read them every time. */
+    @Internal
+    var parseCacheDirectory: File? = File(project.buildDir, "xddl-parse-cache")
+
     @TaskAction
     fun apply() {
         outputFile.parentFile.mkdirs()
@@ -63,6 +68,7 @@ open class XDDLUnifyTask : DefaultTask() {
                                 .newVersion(newVersion)
                                 .evaluateOgnl(true)
                                 .scrubPatch(true)
+                                .parseCache(parseCacheDirectory)
                                 .build()
                 )
                 .build()
@@ -20,6 +20,8 @@ import static net.kebernet.xddl.model.Utils.stackTraceAsString;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
@@ -39,6 +41,7 @@ import java.util.stream.Stream;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import net.kebernet.xddl.migrate.InterningNodeFactory;
 import net.kebernet.xddl.model.Utils;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
@@ -75,6 +78,7 @@ public class ElasticSearchClient {
   private final ObjectMapper objectMapper;
   private final RequestOptions options = RequestOptions.DEFAULT;
   private long scrollTimeout = 5;
+  private JsonNodeFactory nodeFactory = InterningNodeFactory.shared();
 
   public ElasticSearchClient(@Nonnull ObjectMapper mapper) {
     this.objectMapper = mapper;
@@ -91,6 +95,16 @@ public class ElasticSearchClient {
     this.scrollTimeout = scrollTimeout;
   }
 
+  /**
+   * Sets the factory for the nodes of documents read by readBatch. The default shares the nodes of
+   * repeated short values across the batch.
+   *
+   * @param nodeFactory the factory
+   */
+  public void setNodeFactory(@Nonnull JsonNodeFactory nodeFactory) {
+    this.nodeFactory = nodeFactory;
+  }
+
   public Batch readBatch(String indexName, String lastScrollId, int pageSize) throws IOException {
 
     SearchHit[] searchHits;
@@ -129,6 +143,7 @@ public class ElasticSearchClient {
     }
     Stream<SearchHit> stream = searchHits != null ? Arrays.stream(searchHits) : Stream.empty();
     ArrayList<ErrorResult> errors = new ArrayList<>();
+    ObjectReader reader = objectMapper.reader(nodeFactory);
     return new Batch(
         scrollId,
         stream
@@ -136,7 +151,7 @@ public class ElasticSearchClient {
                 h -> {
                   byte[] value = h.getSourceRef().toBytesRef().bytes;
                   try {
-                    return new AbstractMap.SimpleEntry<>(h.getId(), objectMapper.readTree(value));
+                    return new AbstractMap.SimpleEntry<>(h.getId(), reader.readTree(value));
                   } catch (IOException e) {
                     ErrorResult result =
                         new ErrorResult(
@@ -31,6 +31,9 @@ import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import net.kebernet.xddl.Loader;
 import net.kebernet.xddl.SemanticVersion;
+import net.kebernet.xddl.migrate.InterningNodeFactory;
+import net.kebernet.xddl.migrate.MigrationCache;
+import net.kebernet.xddl.migrate.MigrationMetrics;
 import net.kebernet.xddl.migrate.MigrationVisitor;
 import net.kebernet.xddl.powerglide.metadata.GlideMetadataReader;
 import net.kebernet.xddl.powerglide.metadata.PackageMetadata;
@@ -169,6 +172,17 @@ public class PowerGlideRunner {
         state = this.runSingleBatch()) {
       LOGGER.info("Executed batch: " + state);
     }
+    String timings = MigrationMetrics.table(10);
+    if (!timings.isEmpty()) {
+      LOGGER.info("Slowest field migrations:\n" + timings);
+    }
+    String caches = MigrationCache.table();
+    if (!caches.isEmpty()) {
+      LOGGER.info("Pure migration caches:\n" + caches);
+    }
+    if (InterningNodeFactory.shared().getHits() > 0) {
+      LOGGER.info("Shared " + InterningNodeFactory.shared());
+    }
     return state;
   }
 }
@@ -23,12 +23,16 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
 import lombok.Builder;
+import net.kebernet.xddl.cache.ParseCache;
 import net.kebernet.xddl.model.*;
 import net.kebernet.xddl.ognl.OgnlTemplater;
 
@@ -37,11 +41,18 @@ public class Loader {
 
   private static final ObjectMapper MAPPER;
   private File main;
+  /**
+   * A specification already in memory, read in place of the main file, which is then only used in
+   * messages. It is changed in place.
+   */
+  private Specification specification;
   private List<File> includes;
   private List<File> patches;
   private File valsFile;
   private Map<String, Object> vals;
   private boolean scrubPatchesFromBaseline;
+  /** The directory of the {@link ParseCache} for include and patch files, or null for none. */
+  private File parseCache;
 
   static {
     MAPPER = new ObjectMapper();
@@ -64,7 +75,7 @@ public class Loader {
   public Specification readWithoutEvaluate() {
     Specification spec;
     try {
-      spec = MAPPER.readValue(main, Specification.class);
+      spec = specification != null ? specification : MAPPER.readValue(main, Specification.class);
 
       scanDirectories("xddl", Utils.neverNull(this.includes), MAPPER, spec, false);
       if (scrubPatchesFromBaseline) {
@@ -97,6 +108,12 @@ public class Loader {
     return spec;
   }
 
+  /**
+   * Reads every {@code *.<suffix>.json} file under the given directories into the specification.
+   * The trees are walked and the files parsed in parallel on the common fork-join pool, then added
+   * to the specification sorted by path within each directory, so the result doesn't depend on
+   * the file system's listing order or on thread timing.
+   */
   @SuppressWarnings("WeakerAccess")
   void scanDirectories(
       String suffix,
@@ -104,49 +121,109 @@ public class Loader {
       ObjectMapper mapper,
       Specification specification,
       boolean isPatch) {
-    Utils.neverNull(files)
-        .forEach(
-            f -> {
-              if (!f.isDirectory()) {
-                throw new RuntimeException(f.getAbsolutePath() + " is not a directory");
-              }
-              File[] xddls =
-                  f.listFiles(
-                      scan -> scan.getName().toLowerCase().endsWith("." + suffix + ".json"));
-              if (xddls != null) {
-                Arrays.stream(xddls)
-                    .forEach(xddl -> readFile(xddl, mapper, specification, isPatch));
-              }
-              File[] directories = f.listFiles(File::isDirectory);
-              if (directories != null) {
-                scanDirectories(suffix, Arrays.asList(directories), mapper, specification, isPatch);
-              }
-            });
+    String extension = "." + suffix + ".json";
+    for (File directory : Utils.neverNull(files)) {
+      if (!directory.isDirectory()) {
+        throw new RuntimeException(directory.getAbsolutePath() + " is not a directory");
+      }
+      List<File> found = ForkJoinPool.commonPool().invoke(new DirectoryScan(directory, extension));
+      found.sort(Comparator.comparing(File::getPath));
+      ParseCache cache = ParseCache.forDirectory(parseCache);
+      List<Parsed> parsed =
+          found.parallelStream()
+              .map(xddl -> parse(xddl, mapper, cache))
+              .collect(Collectors.toList());
+      RuntimeException failure = null;
+      for (Parsed result : parsed) {
+        if (result.error != null) {
+          RuntimeException error =
+              new RuntimeException(
+                  "Unable to parse "
+                      + result.file.getAbsolutePath()
+                      + "  "
+                      + result.error.getMessage(),
+                  result.error);
+          if (failure == null) {
+            failure = error;
+          } else {
+            failure.addSuppressed(error);
+          }
+        } else if (failure == null) {
+          add(result.file, result.type, specification, isPatch);
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
   }
 
-  private void readFile(
-      File xddl, ObjectMapper mapper, Specification specification, boolean isPatch) {
+  private static Parsed parse(File xddl, ObjectMapper mapper, ParseCache cache) {
     try {
-      BaseType type = mapper.readValue(xddl, BaseType.class);
-      if (type instanceof Structure) {
-        Structure read = (Structure) type;
-        read.setSourceFile(xddl);
-        read.setPatch(isPatch);
-        specification.structures().add(read);
-      } else if (type instanceof Type) {
-        Type read = (Type) type;
-        read.setSourceFile(xddl);
-        read.setPatch(isPatch);
-        specification.types().add(read);
-      } else if (type instanceof PatchDelete) {
-        PatchDelete read = (PatchDelete) type;
-        read.setSourceFile(xddl);
-        read.setPatch(true);
-        specification.deletions().add(read);
-      }
+      BaseType type =
+          cache == null ? mapper.readValue(xddl, BaseType.class) : cache.read(xddl, mapper);
+      return new Parsed(xddl, type, null);
     } catch (IOException e) {
-      throw new RuntimeException(
-          "Unable to parse " + xddl.getAbsolutePath() + "  " + e.getMessage(), e);
+      return new Parsed(xddl, null, e);
+    }
+  }
+
+  private void add(File xddl, BaseType type, Specification specification, boolean isPatch) {
+    if (type instanceof Structure) {
+      Structure read = (Structure) type;
+      read.setSourceFile(xddl);
+      read.setPatch(isPatch);
+      specification.structures().add(read);
+    } else if (type instanceof Type) {
+      Type read = (Type) type;
+      read.setSourceFile(xddl);
+      read.setPatch(isPatch);
+      specification.types().add(read);
+    } else if (type instanceof PatchDelete) {
+      PatchDelete read = (PatchDelete) type;
+      read.setSourceFile(xddl);
+      read.setPatch(true);
+      specification.deletions().add(read);
+    }
+  }
+
+  private static class Parsed {
+    private final File file;
+    private final BaseType type;
+    private final IOException error;
+
+    private Parsed(File file, BaseType type, IOException error) {
+      this.file = file;
+      this.type = type;
+      this.error = error;
+    }
+  }
+
+  /** Lists the matching files of a directory, forking a task for each subdirectory. */
+  private static class DirectoryScan extends RecursiveTask<List<File>> {
+    private final File directory;
+    private final String extension;
+
+    private DirectoryScan(File directory, String extension) {
+      this.directory = directory;
+      this.extension = extension;
+    }
+
+    @Override
+    protected List<File> compute() {
+      ArrayList<File> result = new ArrayList<>();
+      ArrayList<DirectoryScan> children = new ArrayList<>();
+      for (File file : Utils.neverNull(directory.listFiles())) {
+        if (file.isDirectory()) {
+          DirectoryScan child = new DirectoryScan(file, extension);
+          child.fork();
+          children.add(child);
+        } else if (file.getName().toLowerCase().endsWith(extension)) {
+          result.add(file);
+        }
+      }
+      children.forEach(child -> result.addAll(child.join()));
+      return result;
     }
   }
 
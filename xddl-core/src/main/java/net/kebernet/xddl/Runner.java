@@ -18,6 +18,8 @@ package net.kebernet.xddl;
 import com.beust.jcommander.JCommander;
 import java.util.stream.Stream;
 import lombok.Getter;
+import net.kebernet.xddl.cache.ParseCache;
+import net.kebernet.xddl.cache.VerifyCacheCommand;
 import net.kebernet.xddl.diff.DiffCommand;
 import net.kebernet.xddl.diff.DiffRunner;
 import net.kebernet.xddl.generate.GenerateCommand;
@@ -26,6 +28,8 @@ import net.kebernet.xddl.glide.GlideCommand;
 import net.kebernet.xddl.glide.GlideRunner;
 import net.kebernet.xddl.unify.UnifyCommand;
 import net.kebernet.xddl.unify.UnifyRunner;
+import net.kebernet.xddl.watch.WatchCommand;
+import net.kebernet.xddl.watch.WatchRunner;
 
 @Getter
 public class Runner {
@@ -35,12 +39,16 @@ public class Runner {
     DiffCommand diffCommand = new DiffCommand();
     UnifyCommand unifyCommand = UnifyCommand.builder().build();
     GlideCommand glideCommand = GlideCommand.builder().build();
+    VerifyCacheCommand verifyCacheCommand = new VerifyCacheCommand();
+    WatchCommand watchCommand = new WatchCommand();
     JCommander jCommander =
         JCommander.newBuilder()
             .addCommand("generate", command)
             .addCommand("diff", diffCommand)
             .addCommand("unify", unifyCommand)
             .addCommand("glide", glideCommand)
+            .addCommand("verify-cache", verifyCacheCommand)
+            .addCommand("watch", watchCommand)
             .args(args)
             .build();
     try {
@@ -58,6 +66,8 @@ public class Runner {
               .includes(command.getIncludes())
               .vals(command.getVals())
               .valsFile(command.getValsFile())
+              .parseCache(command.getParseCache())
+              .parallelism(command.getParallelism())
               .build()
               .run();
           break;
@@ -82,6 +92,20 @@ public class Runner {
           }
           GlideRunner.builder().command(glideCommand).build().run();
           break;
+        case "verify-cache":
+          if (verifyCacheCommand.isHelp()) {
+            jCommander.usage("verify-cache");
+            return;
+          }
+          System.out.println(new ParseCache(verifyCacheCommand.getParseCache()).verify());
+          break;
+        case "watch":
+          if (watchCommand.isHelp()) {
+            jCommander.usage("watch");
+            return;
+          }
+          WatchRunner.builder().command(watchCommand).build().run();
+          break;
         default:
           throw new UnsupportedOperationException(
               "Unknown command " + jCommander.getParsedCommand());
@@ -91,7 +115,8 @@ public class Runner {
       jCommander.usage(jCommander.getParsedCommand());
       System.err.print("Error:");
       boolean isStackTrace =
-          Stream.of(command, diffCommand, glideCommand, unifyCommand)
+          Stream.of(
+                  command, diffCommand, glideCommand, unifyCommand, verifyCacheCommand, watchCommand)
               .anyMatch(HasStacktrace::isStacktrace);
       if (isStackTrace) {
         e.printStackTrace();
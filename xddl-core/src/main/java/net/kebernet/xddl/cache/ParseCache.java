@@ -0,0 +1,345 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.cache;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import lombok.Getter;
+import net.kebernet.xddl.model.BaseType;
+import net.kebernet.xddl.model.CoreType;
+import net.kebernet.xddl.model.HasExtensions;
+import net.kebernet.xddl.model.PatchDelete;
+import net.kebernet.xddl.model.Reference;
+import net.kebernet.xddl.model.Structure;
+import net.kebernet.xddl.model.Type;
+import net.kebernet.xddl.model.Utils;
+import net.kebernet.xddl.model.Value;
+
+/**
+ * An on-disk cache of parsed include and patch files. Each file gets one entry holding its path,
+ * size, modification time and SHA-256, followed by the parsed {@link BaseType} in Smile, Jackson's
+ * binary JSON format, and a CRC32 of the whole entry.
+ *
+ * <p>An entry is used as is when the size and modification time still match. When only the
+ * modification time changed, as it does after a checkout, the content hash decides. Anything else
+ * is parsed again and the entry rewritten. Setting the {@value #DISABLE_PROPERTY} system property
+ * to true turns the cache off.
+ *
+ * <p>Every entry also records a hash of the model classes its payload decodes into. Entries written
+ * by another version of the model are parsed again, so an upgrade never decodes a payload into
+ * classes that have changed since.
+ */
+public class ParseCache {
+  /** Set this system property to true to read every file without the cache. */
+  public static final String DISABLE_PROPERTY = "xddl.parseCache.disabled";
+
+  private static final int MAGIC = 0x58444443;
+  /** The layout of an entry. The model classes are tracked by {@link #MODEL}. */
+  private static final int FORMAT = 2;
+  private static final int HASH_LENGTH = 32;
+  private static final String SUFFIX = ".xddlc";
+  private static final ObjectMapper SMILE =
+      new ObjectMapper(new SmileFactory()).setSerializationInclusion(JsonInclude.Include.NON_NULL);
+  /** The classes a payload decodes into. A model class that is added belongs here too. */
+  private static final Class<?>[] MODEL_CLASSES = {
+    BaseType.class,
+    Structure.class,
+    Type.class,
+    net.kebernet.xddl.model.List.class,
+    Reference.class,
+    PatchDelete.class,
+    Value.class,
+    CoreType.class,
+    HasExtensions.class
+  };
+
+  private static final String MODEL = modelVersion();
+
+  @Getter private final File directory;
+  private final String model;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public ParseCache(File directory) {
+    this(directory, MODEL);
+  }
+
+  ParseCache(File directory, String model) {
+    this.directory = directory;
+    this.model = model;
+  }
+
+  /**
+   * @param directory the cache directory, or null
+   * @return a cache over the directory, or null if there is no directory or the cache is disabled.
+   */
+  public static ParseCache forDirectory(File directory) {
+    if (directory == null || Boolean.getBoolean(DISABLE_PROPERTY)) {
+      return null;
+    }
+    return new ParseCache(directory);
+  }
+
+  /**
+   * Reads a file, from its cache entry when the entry still matches it.
+   *
+   * @param file the file to read
+   * @param mapper the mapper to parse it with on a miss
+   * @return the parsed type.
+   * @throws IOException if the file can't be read or parsed
+   */
+  public BaseType read(File file, ObjectMapper mapper) throws IOException {
+    String path = file.getCanonicalPath();
+    long size = file.length();
+    long modified = file.lastModified();
+    File entryFile = entryFile(path);
+    Entry entry = Entry.read(entryFile, model);
+    if (entry != null && !entry.path.equals(path)) {
+      entry = null;
+    }
+    if (entry != null && entry.size == size && entry.modified == modified) {
+      BaseType cached = decode(entry);
+      if (cached != null) {
+        hits.increment();
+        return cached;
+      }
+    }
+    byte[] content = Files.readAllBytes(file.toPath());
+    byte[] hash = sha256(content);
+    if (entry != null && Arrays.equals(entry.hash, hash)) {
+      BaseType cached = decode(entry);
+      if (cached != null) {
+        hits.increment();
+        write(entryFile, new Entry(path, content.length, modified, hash, entry.payload));
+        return cached;
+      }
+    }
+    misses.increment();
+    BaseType type = mapper.readValue(content, BaseType.class);
+    byte[] payload = SMILE.writeValueAsBytes(type);
+    write(entryFile, new Entry(path, content.length, modified, hash, payload));
+    return type;
+  }
+
+  /**
+   * Checks every entry in the cache directory. Entries that are truncated, fail their checksum or
+   * can't be decoded are deleted.
+   *
+   * @return counts of the valid, stale and corrupt entries.
+   */
+  public Integrity verify() {
+    Integrity result = new Integrity();
+    File[] files = Utils.neverNull(directory.listFiles(f -> f.getName().endsWith(SUFFIX)));
+    for (File file : files) {
+      Entry entry = Entry.read(file, model);
+      if (entry == null || decode(entry) == null || !file.equals(entryFile(entry.path))) {
+        result.corrupt++;
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        continue;
+      }
+      File source = new File(entry.path);
+      if (!source.isFile()
+          || source.length() != entry.size
+          || source.lastModified() != entry.modified) {
+        result.stale++;
+      } else {
+        result.valid++;
+      }
+    }
+    return result;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  File entryFile(String path) {
+    StringBuilder name = new StringBuilder();
+    for (byte b : sha256(path.getBytes(StandardCharsets.UTF_8))) {
+      name.append(String.format("%02x", b));
+    }
+    return new File(directory, name.append(SUFFIX).toString());
+  }
+
+  private static BaseType decode(Entry entry) {
+    try {
+      return SMILE.readValue(entry.payload, BaseType.class);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /** Writes through a temporary file, so a reader never sees half an entry. */
+  private void write(File entryFile, Entry entry) {
+    try {
+      Files.createDirectories(directory.toPath());
+      File temp = File.createTempFile(entryFile.getName(), ".tmp", directory);
+      Files.write(temp.toPath(), entry.toBytes(model));
+      Files.move(
+          temp.toPath(),
+          entryFile.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // The cache is an optimization: if it can't be written the file is simply parsed next time.
+    }
+  }
+
+  /**
+   * @return a hash of the model classes' bytecode, so a change to any of them is noticed, even
+   *     between builds of the same xddl version.
+   */
+  private static String modelVersion() {
+    MessageDigest digest = digest();
+    for (Class<?> modelClass : MODEL_CLASSES) {
+      try (InputStream in = modelClass.getResourceAsStream(modelClass.getSimpleName() + ".class")) {
+        if (in == null) {
+          throw new IllegalStateException("Can't read the bytecode of " + modelClass);
+        }
+        digest.update(ByteStreams.toByteArray(in));
+      } catch (IOException e) {
+        throw new IllegalStateException("Can't read the bytecode of " + modelClass, e);
+      }
+    }
+    StringBuilder result = new StringBuilder();
+    for (byte b : digest.digest()) {
+      result.append(String.format("%02x", b));
+    }
+    return result.toString();
+  }
+
+  private static byte[] sha256(byte[] content) {
+    return digest().digest(content);
+  }
+
+  private static MessageDigest digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** The result of {@link #verify()}. */
+  @Getter
+  public static class Integrity {
+    private int valid;
+    private int stale;
+    private int corrupt;
+
+    @Override
+    public String toString() {
+      return valid + " valid, " + stale + " stale and " + corrupt + " corrupt (deleted) entries";
+    }
+  }
+
+  private static class Entry {
+    private final String path;
+    private final long size;
+    private final long modified;
+    private final byte[] hash;
+    private final byte[] payload;
+
+    private Entry(String path, long size, long modified, byte[] hash, byte[] payload) {
+      this.path = path;
+      this.size = size;
+      this.modified = modified;
+      this.hash = hash;
+      this.payload = payload;
+    }
+
+    private byte[] toBytes(String model) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 256);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      out.writeUTF(model);
+      out.writeUTF(path);
+      out.writeLong(size);
+      out.writeLong(modified);
+      out.write(hash);
+      out.writeInt(payload.length);
+      out.write(payload);
+      CRC32 crc = new CRC32();
+      crc.update(bytes.toByteArray());
+      out.writeLong(crc.getValue());
+      out.flush();
+      return bytes.toByteArray();
+    }
+
+    /**
+     * @return the entry, or null if it is missing, truncated, fails its checksum or was written
+     *     for another model.
+     */
+    private static Entry read(File file, String model) {
+      byte[] bytes;
+      try {
+        bytes = Files.readAllBytes(file.toPath());
+      } catch (IOException e) {
+        return null;
+      }
+      if (bytes.length < 8) {
+        return null;
+      }
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, bytes.length - 8);
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT || !in.readUTF().equals(model)) {
+          return null;
+        }
+        String path = in.readUTF();
+        long size = in.readLong();
+        long modified = in.readLong();
+        byte[] hash = new byte[HASH_LENGTH];
+        in.readFully(hash);
+        int length = in.readInt();
+        if (length != in.available() - 8) {
+          return null;
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        if (in.readLong() != crc.getValue()) {
+          return null;
+        }
+        return new Entry(path, size, modified, hash, payload);
+      } catch (IOException e) {
+        return null;
+      }
+    }
+  }
+}
@@ -21,6 +21,7 @@ import java.util.stream.Collectors;
 import lombok.AccessLevel;
 import lombok.Builder;
 import net.kebernet.xddl.Loader;
+import net.kebernet.xddl.model.Freezer;
 import net.kebernet.xddl.model.Specification;
 
 @Builder(access = AccessLevel.PUBLIC)
@@ -29,12 +30,15 @@ public class DiffRunner {
   private DiffCommand command;
 
   public void run() throws IOException {
+    // Both versions are held at once, so they are frozen together to share what they have alike.
+    Freezer freezer = new Freezer();
     Specification left =
         Loader.builder()
             .main(command.getLeftFile())
             .includes(command.getLeftIncludes())
             .build()
             .read();
+    left = freezer.freeze(left);
 
     Specification right =
         Loader.builder()
@@ -42,6 +46,7 @@ public class DiffRunner {
             .includes(command.getRightIncludes())
             .build()
             .read();
+    right = freezer.freeze(right);
 
     SpecificationDiff diff = new SpecificationDiff(Loader.mapper(), left, right);
     Set<SchemaElement> difference = diff.diff();
@@ -55,6 +55,17 @@ public class GenerateCommand implements HasStacktrace {
 
   private Map<String, Object> vals;
 
+  @Parameter(
+      names = {"--parse-cache", "-pc"},
+      description = "Directory to cache parsed include and patch files in.")
+  private File parseCache;
+
+  @Parameter(
+      names = {"--parallelism", "-p"},
+      description =
+          "How many threads to generate with, each plugin over its own copy of the specification. 0 uses one per processor.")
+  private int parallelism = 1;
+
   @Parameter(names = "--help", description = "Show this help text", help = true)
   private boolean help = false;
 
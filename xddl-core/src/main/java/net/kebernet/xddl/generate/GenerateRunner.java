@@ -20,10 +20,16 @@ import static net.kebernet.xddl.model.Utils.neverNull;
 import com.google.common.collect.Streams;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 import lombok.AccessLevel;
 import lombok.Builder;
@@ -32,7 +38,10 @@ import net.kebernet.xddl.Loader;
 import net.kebernet.xddl.model.Specification;
 import net.kebernet.xddl.model.Utils;
 import net.kebernet.xddl.plugins.Context;
+import net.kebernet.xddl.plugins.GeneralException;
+import net.kebernet.xddl.plugins.PartitionedPlugin;
 import net.kebernet.xddl.plugins.Plugin;
+import net.kebernet.xddl.plugins.WorkUnit;
 
 @Builder(access = AccessLevel.PUBLIC)
 @Getter
@@ -45,30 +54,184 @@ public class GenerateRunner {
   private Context context;
   private Map<String, Object> vals;
   private File valsFile;
+  private File parseCache;
+  /**
+   * How many threads to generate with. Several plugins run at once, each over its own copy of the
+   * specification, and the units of a {@link PartitionedPlugin} are spread over the threads too.
+   * The default of one runs the plugins in turn over the specification itself, and zero uses one
+   * thread per processor.
+   */
+  @Builder.Default private int parallelism = 1;
 
   public void run() throws IOException {
+    generate(load());
+  }
+
+  /** @return the specification, read and evaluated from the files this runner was built with. */
+  public Specification load() {
+    return Loader.builder()
+        .main(specificationFile)
+        .includes(this.includes)
+        .valsFile(valsFile)
+        .vals(vals == null ? null : new HashMap<>(vals))
+        .parseCache(parseCache)
+        .build()
+        .read();
+  }
 
-    Specification specification =
-        Loader.builder()
-            .main(specificationFile)
-            .includes(this.includes)
-            .valsFile(valsFile)
-            .vals(vals)
-            .build()
-            .read();
+  /**
+   * Runs the plugins over a specification.
+   *
+   * @param specification the specification from {@link #load()}
+   * @throws IOException if an artifact can't be written
+   */
+  public void generate(Specification specification) throws IOException {
+    generate(specification, null);
+  }
+
+  /**
+   * Runs the plugins over a specification, skipping the units of a {@link PartitionedPlugin} that
+   * are for a structure or type that can't be affected by the changes.
+   *
+   * @param specification the specification from {@link #load()}
+   * @param changed the names of the changed structures and types, or null to generate everything
+   * @throws IOException if an artifact can't be written
+   */
+  public void generate(Specification specification, Set<String> changed) throws IOException {
     this.context = new Context(Loader.mapper(), specification);
+    context.setSpecificationFile(specificationFile);
+    Set<String> affected = changed == null ? null : context.getDependencies().impactOf(changed);
     Iterable<Plugin> implementations = neverNull(ServiceLoader.load(Plugin.class));
     Set<String> known =
         Streams.stream(implementations).map(Plugin::getName).collect(Collectors.toSet());
-    for (String name : Utils.neverNull(plugins)) {
+    Collection<String> plugins = Utils.neverNull(this.plugins);
+    for (String name : plugins) {
       if (!known.contains(name)) {
         throw context.stateException("Unknown plugin: " + name + " known plugins: " + known, null);
       }
     }
-    for (Plugin plugin : implementations) {
-      if (plugins.contains(plugin.getName())) {
-        plugin.generateArtifacts(context, outputDirectory);
+    List<Plugin> selected =
+        Streams.stream(implementations)
+            .filter(plugin -> plugins.contains(plugin.getName()))
+            .collect(Collectors.toList());
+    int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    if (threads <= 1) {
+      for (Plugin plugin : selected) {
+        runPlugin(plugin, context, affected, false);
+      }
+      return;
+    }
+    // Plugins rename and rewrite parts of the model as they go, so in parallel each gets a context
+    // over its own copy of the specification, even when it is the only one, and the caller's
+    // specification is left as it was read.
+    byte[] snapshot = Loader.mapper().writeValueAsBytes(specification);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      List<WorkUnit> runs =
+          selected.stream()
+              .map(
+                  plugin ->
+                      new WorkUnit(
+                          plugin.getName(),
+                          () -> runPlugin(plugin, contextFor(snapshot), affected, true)))
+              .collect(Collectors.toList());
+      Map<String, Throwable> failures = pool.invoke(ForkJoinTask.adapt(() -> invokeAll(runs)));
+      if (!failures.isEmpty()) {
+        throw failure("Plugin", failures);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private Context contextFor(byte[] snapshot) throws IOException {
+    Context copy =
+        new Context(Loader.mapper(), Loader.mapper().readValue(snapshot, Specification.class));
+    copy.setSpecificationFile(specificationFile);
+    return copy;
+  }
+
+  /**
+   * Runs a plugin. A {@link PartitionedPlugin}'s units are filtered to the affected types, and in
+   * parallel they are spread over the pool the plugin is running in.
+   */
+  private void runPlugin(Plugin plugin, Context context, Set<String> affected, boolean parallel)
+      throws IOException {
+    if (!(plugin instanceof PartitionedPlugin)) {
+      plugin.generateArtifacts(context, outputDirectory);
+      return;
+    }
+    PartitionedPlugin partitioned = (PartitionedPlugin) plugin;
+    List<WorkUnit> units = new ArrayList<>(partitioned.workUnits(context, outputDirectory));
+    if (affected != null) {
+      // Units that aren't for a single type, such as an index of everything, always run.
+      units.removeIf(
+          unit ->
+              context.getReferences().containsKey(unit.getName())
+                  && !affected.contains(unit.getName()));
+    }
+    if (!parallel) {
+      for (WorkUnit unit : units) {
+        unit.generate();
+      }
+    } else {
+      Map<String, Throwable> failures = invokeAll(units);
+      if (!failures.isEmpty()) {
+        throw failure(plugin.getName() + " unit", failures);
+      }
+    }
+    partitioned.finish(context, outputDirectory);
+  }
+
+  /**
+   * Forks every unit into the current pool and waits for them all, so a failure doesn't leave
+   * others half written.
+   *
+   * @return the failures, by unit name, in unit order.
+   */
+  private static Map<String, Throwable> invokeAll(List<WorkUnit> units) {
+    Exception[] errors = new Exception[units.size()];
+    List<ForkJoinTask<?>> forked = new ArrayList<>();
+    for (int i = 0; i < units.size(); i++) {
+      int index = i;
+      forked.add(
+          ForkJoinTask.adapt(
+              () -> {
+                try {
+                  units.get(index).generate();
+                } catch (IOException | RuntimeException e) {
+                  errors[index] = e;
+                }
+              }));
+    }
+    ForkJoinTask.invokeAll(forked);
+    Map<String, Throwable> failures = new LinkedHashMap<>();
+    for (int i = 0; i < errors.length; i++) {
+      if (errors[i] != null) {
+        failures.put(units.get(i).getName(), errors[i]);
       }
     }
+    return failures;
+  }
+
+  private static GeneralException failure(String kind, Map<String, Throwable> failures) {
+    if (failures.size() == 1) {
+      Map.Entry<String, Throwable> only = failures.entrySet().iterator().next();
+      return new GeneralException(
+          kind + " " + only.getKey() + " failed: " + only.getValue().getMessage(),
+          only.getValue());
+    }
+    GeneralException failure =
+        new GeneralException(
+            kind
+                + "s "
+                + failures.keySet()
+                + " failed:"
+                + failures.entrySet().stream()
+                    .map(e -> "\n  " + e.getKey() + ": " + e.getValue().getMessage())
+                    .collect(Collectors.joining()));
+    failures.forEach(
+        (name, cause) -> failure.addSuppressed(new GeneralException(name + " failed", cause)));
+    return failure;
   }
 }
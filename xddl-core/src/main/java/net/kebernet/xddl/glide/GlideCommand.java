@@ -57,6 +57,17 @@ public class GlideCommand implements HasStacktrace {
 
   private Map<String, Object> vals;
 
+  @Parameter(
+      names = {"--parse-cache", "-pc"},
+      description = "Directory to cache parsed include and patch files in.")
+  private File parseCache;
+
+  @Parameter(
+      names = {"--record-previous", "-rp"},
+      description =
+          "Record each version's previous unified file as ext.glide.previous, for the migrate plugin.")
+  private boolean recordPrevious;
+
   @Parameter(names = "--help", description = "Show this help text", help = true)
   private boolean help;
 
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.glide;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.kebernet.xddl.model.Utils;
+
+/**
+ * Hashes the inputs of each glide version, and records them next to its unified file as {@code
+ * <version>.inputs.sha256}, so a later glide can reuse the versions whose inputs haven't changed.
+ * Each version's hash covers the previous version's, so a change to the baseline or to a version's
+ * patches changes the hash of every version after it.
+ *
+ * <p>The record also holds the hash of the unified file, so one that was changed or only partly
+ * written isn't reused.
+ */
+final class GlideInputs {
+  static final String SUFFIX = ".inputs.sha256";
+  /** Changed when the unified output of the same inputs would change. */
+  private static final String FORMAT = "xddl-glide-1";
+
+  private GlideInputs() {}
+
+  /**
+   * Hashes the specification file, the include directories and whether the previous version is
+   * recorded. Glide doesn't evaluate OGNL, so the vals are not inputs.
+   */
+  static String baseline(GlideCommand command) throws IOException {
+    MessageDigest digest = digest();
+    update(digest, FORMAT);
+    update(digest, command.isRecordPrevious() ? "recordPrevious" : "");
+    update(digest, Files.readAllBytes(command.getInputFile().toPath()));
+    for (File include : Utils.neverNull(command.getIncludes())) {
+      updateTree(digest, include);
+    }
+    return hex(digest.digest());
+  }
+
+  /** Hashes the version's patch directory on top of the previous version's hash. */
+  static String version(String previous, String version, File patches) throws IOException {
+    MessageDigest digest = digest();
+    update(digest, previous);
+    update(digest, version);
+    updateTree(digest, patches);
+    return hex(digest.digest());
+  }
+
+  /** @return true if the unified file is there, unchanged, and was made from these inputs. */
+  static boolean matches(File unified, String inputs) {
+    File record = recordFile(unified);
+    if (!unified.isFile() || !record.isFile()) {
+      return false;
+    }
+    try {
+      String[] recorded =
+          new String(Files.readAllBytes(record.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+      return recorded.length == 2
+          && recorded[0].equals(inputs)
+          && recorded[1].equals(hex(digest().digest(Files.readAllBytes(unified.toPath()))));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /** Records the inputs of a unified file, once the file itself has been written. */
+  static void record(File unified, String inputs, byte[] content) throws IOException {
+    Files.write(
+        recordFile(unified).toPath(),
+        (inputs + " " + hex(digest().digest(content)) + "\n").getBytes(StandardCharsets.UTF_8));
+  }
+
+  static File recordFile(File unified) {
+    String name = unified.getName();
+    return new File(
+        unified.getParentFile(),
+        name.substring(0, name.length() - ".xddl.json".length()) + SUFFIX);
+  }
+
+  /** Hashes the path and content of every file under the directory, in path order. */
+  private static void updateTree(MessageDigest digest, File directory) throws IOException {
+    if (!directory.isDirectory()) {
+      update(digest, "missing " + directory.getPath());
+      return;
+    }
+    Path root = directory.toPath();
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(root)) {
+      files =
+          walk.filter(Files::isRegularFile)
+              .sorted(Comparator.comparing(file -> root.relativize(file).toString()))
+              .collect(Collectors.toList());
+    }
+    for (Path file : files) {
+      update(digest, root.relativize(file).toString().replace(File.separatorChar, '/'));
+      update(digest, Files.readAllBytes(file));
+    }
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    update(digest, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Each value is prefixed with its length, so the boundaries between values can't move. */
+  private static void update(MessageDigest digest, byte[] value) {
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(value.length).array());
+    digest.update(value);
+  }
+
+  private static MessageDigest digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] hash) {
+    StringBuilder result = new StringBuilder();
+    for (byte b : hash) {
+      result.append(String.format("%02x", b));
+    }
+    return result.toString();
+  }
+}
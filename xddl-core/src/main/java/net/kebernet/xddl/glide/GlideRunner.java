@@ -15,42 +15,67 @@
  */
 package net.kebernet.xddl.glide;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 import lombok.Builder;
+import net.kebernet.xddl.Loader;
 import net.kebernet.xddl.SemanticVersion;
+import net.kebernet.xddl.model.Specification;
 import net.kebernet.xddl.model.Utils;
 import net.kebernet.xddl.unify.UnifyCommand;
 import net.kebernet.xddl.unify.UnifyRunner;
 
+/**
+ * Unifies the baseline and then each version of patches in turn. Each version is derived from the
+ * previous one in memory, through a copy of its JSON tree rather than its file, and the files are
+ * written in the background while the next version is unified.
+ *
+ * <p>The inputs of each version are recorded by {@link GlideInputs}, and the versions up to the
+ * first one whose inputs changed are reused rather than unified again.
+ */
 @Builder
 public class GlideRunner {
 
   private GlideCommand command;
 
   public void run() throws IOException {
+    List<CompletableFuture<Void>> writes = new ArrayList<>();
+    try {
+      unifyVersions(writes);
+    } catch (IOException | RuntimeException e) {
+      try {
+        join(writes);
+      } catch (IOException failed) {
+        e.addSuppressed(failed);
+      }
+      throw e;
+    }
+    join(writes);
+  }
+
+  /**
+   * @param unified a unified version in the output directory
+   * @return the file recording the inputs it was unified from.
+   */
+  public static File inputsFile(File unified) {
+    return GlideInputs.recordFile(unified);
+  }
+
+  private void unifyVersions(List<CompletableFuture<Void>> writes) throws IOException {
     File outputDirectory = command.getOutputDirectory();
-    File baseline = new File(outputDirectory, "baseline.xddl.json");
-    UnifyRunner.builder()
-        .command(
-            UnifyCommand.builder()
-                .inputFile(command.getInputFile())
-                .includes(command.getIncludes())
-                .outputFile(baseline)
-                .vals(command.getVals())
-                .valsFile(command.getValsFile())
-                .evaluateOgnl(false)
-                .build())
-        .build()
-        .run();
     List<File> versions =
         Arrays.asList(Utils.neverNull(command.getPatches().listFiles(File::isDirectory)));
-    File lastUnified = baseline;
     HashMap<SemanticVersion, File> versionLookup = new HashMap<>();
     List<SemanticVersion> ordered =
         versions.stream()
@@ -62,23 +87,110 @@ public class GlideRunner {
                 })
             .sorted()
             .collect(Collectors.toList());
+
+    // The baseline first, then each version, with the hash of the inputs it is unified from.
+    List<File> outputs = new ArrayList<>();
+    List<String> inputs = new ArrayList<>();
+    outputs.add(new File(outputDirectory, "baseline.xddl.json"));
+    inputs.add(GlideInputs.baseline(command));
     for (SemanticVersion version : ordered) {
       File patches = versionLookup.get(version);
-      File outputFile =
-          new File(outputDirectory, patches.getName().replaceAll("\\.", "_") + ".xddl.json");
-      UnifyRunner.builder()
-          .command(
-              UnifyCommand.builder()
-                  .newVersion(version.toString())
-                  .scrubPatch(true)
-                  .inputFile(lastUnified)
-                  .patches(Collections.singletonList(patches))
-                  .outputFile(outputFile)
-                  .evaluateOgnl(false)
-                  .build())
-          .build()
-          .run();
-      lastUnified = outputFile;
+      outputs.add(
+          new File(outputDirectory, patches.getName().replaceAll("\\.", "_") + ".xddl.json"));
+      inputs.add(GlideInputs.version(inputs.get(inputs.size() - 1), version.toString(), patches));
+    }
+    int reused = 0;
+    while (reused < outputs.size()
+        && GlideInputs.matches(outputs.get(reused), inputs.get(reused))) {
+      reused++;
+    }
+
+    JsonNode tree = null;
+    if (reused == 0) {
+      Specification unified =
+          UnifyRunner.builder()
+              .command(
+                  UnifyCommand.builder()
+                      .inputFile(command.getInputFile())
+                      .includes(command.getIncludes())
+                      .outputFile(outputs.get(0))
+                      .vals(command.getVals())
+                      .valsFile(command.getValsFile())
+                      .evaluateOgnl(false)
+                      .parseCache(command.getParseCache())
+                      .build())
+              .build()
+              .unify();
+      tree = Loader.mapper().valueToTree(unified);
+      writes.add(write(outputs.get(0), unified, inputs.get(0)));
+      reused = 1;
+    } else if (reused < outputs.size()) {
+      // Reading the last unchanged version carries on from it exactly as unifying it would have.
+      tree = Loader.mapper().readTree(outputs.get(reused - 1));
+    }
+    for (int i = reused; i < outputs.size(); i++) {
+      SemanticVersion version = ordered.get(i - 1);
+      File previous = outputs.get(i - 1);
+      Specification unified =
+          UnifyRunner.builder()
+              .command(
+                  UnifyCommand.builder()
+                      .newVersion(version.toString())
+                      .scrubPatch(true)
+                      .inputFile(previous)
+                      .previousFile(command.isRecordPrevious() ? previous : null)
+                      .patches(Collections.singletonList(versionLookup.get(version)))
+                      .outputFile(outputs.get(i))
+                      .evaluateOgnl(false)
+                      .parseCache(command.getParseCache())
+                      .build())
+              // The copy reads exactly what the previous file would, without writing it first.
+              .input(Loader.mapper().treeToValue(tree, Specification.class))
+              .build()
+              .unify();
+      tree = Loader.mapper().valueToTree(unified);
+      writes.add(write(outputs.get(i), unified, inputs.get(i)));
+    }
+  }
+
+  /**
+   * Writes a specification that is no longer changed on the common pool, and then the record of
+   * its inputs.
+   */
+  private static CompletableFuture<Void> write(
+      File file, Specification specification, String inputs) {
+    return CompletableFuture.runAsync(
+        () -> {
+          try {
+            byte[] content = Loader.mapper().writeValueAsBytes(specification);
+            Files.write(file.toPath(), content);
+            GlideInputs.record(file, inputs, content);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  /** Waits for every write, and throws the first failure with the others suppressed. */
+  private static void join(List<CompletableFuture<Void>> writes) throws IOException {
+    IOException failure = null;
+    for (CompletableFuture<Void> write : writes) {
+      try {
+        write.join();
+      } catch (CompletionException e) {
+        IOException error =
+            e.getCause() instanceof UncheckedIOException
+                ? ((UncheckedIOException) e.getCause()).getCause()
+                : new IOException(e.getCause());
+        if (failure == null) {
+          failure = error;
+        } else {
+          failure.addSuppressed(error);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
     }
   }
 }
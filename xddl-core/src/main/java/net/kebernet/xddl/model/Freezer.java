@@ -0,0 +1,189 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import net.kebernet.xddl.Loader;
+
+/**
+ * Makes compact, read-only copies of specifications. Names, descriptions and other strings are
+ * interned, equal ext and value trees are shared as a single instance, lists and maps become
+ * immutable, and the source file of each type is dropped.
+ *
+ * <p>One freezer can freeze several specifications, such as the versions of a glide, and they then
+ * share everything they have in common. Freezing copies the whole specification through its JSON
+ * tree, so it only pays off where several specifications are held at once, as in
+ * {@link net.kebernet.xddl.diff.DiffRunner}. The model classes are still beans with setters, so a
+ * frozen specification is read-only by convention: its collections throw if changed, and the shared
+ * trees must not be modified.
+ */
+public class Freezer {
+  private final Map<String, String> strings = new HashMap<>();
+  /**
+   * Shared trees by their JSON text. ObjectNode.equals ignores the order of the fields, so keying
+   * by the trees themselves would swap one for an equal tree with its fields in another order.
+   */
+  private final Map<String, JsonNode> nodes = new HashMap<>();
+
+  /**
+   * @param specification the specification to copy, which is left as it is
+   * @return the frozen copy.
+   */
+  public synchronized Specification freeze(Specification specification) {
+    Specification copy;
+    try {
+      copy =
+          Loader.mapper()
+              .treeToValue(Loader.mapper().valueToTree(specification), Specification.class);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Unable to copy the specification", e);
+    }
+    copy.setTitle(intern(copy.getTitle()));
+    copy.setDescription(intern(copy.getDescription()));
+    copy.setComment(intern(copy.getComment()));
+    copy.setVersion(intern(copy.getVersion()));
+    copy.setEntryRef(intern(copy.getEntryRef()));
+    copy.setExt(ext(copy.getExt()));
+    copy.setTypes(list(copy.getTypes(), this::type));
+    copy.setStructures(list(copy.getStructures(), this::type));
+    copy.setDeletions(list(copy.getDeletions(), this::type));
+    Map<String, BaseType> topLevel = new HashMap<>();
+    copy.getTypes().forEach(t -> topLevel.put(t.getName(), t));
+    copy.getStructures().forEach(t -> topLevel.put(t.getName(), t));
+    copy.getStructures().forEach(t -> mergeReferences(t, topLevel));
+    if (copy.getConstants() != null) {
+      copy.setConstants(Collections.unmodifiableMap(new LinkedHashMap<>(copy.getConstants())));
+    }
+    return copy;
+  }
+
+  private <T extends BaseType> T type(T type) {
+    if (type == null) {
+      return null;
+    }
+    type.setSourceFile(null);
+    type.setName(intern(type.getName()));
+    type.setDescription(intern(type.getDescription()));
+    type.setComment(intern(type.getComment()));
+    type.setExt(ext(type.getExt()));
+    if (type instanceof Structure) {
+      Structure structure = (Structure) type;
+      if (structure.getProperties() != null) {
+        structure.setProperties(list(structure.getProperties(), this::type));
+      }
+    } else if (type instanceof List) {
+      ((List) type).setContains(type(((List) type).getContains()));
+    } else if (type instanceof Reference) {
+      ((Reference) type).setRef(intern(((Reference) type).getRef()));
+    } else if (type instanceof Type) {
+      Type typed = (Type) type;
+      if (typed.getExamples() != null) {
+        typed.setExamples(list(typed.getExamples(), this::value));
+      }
+      if (typed.getAllowable() != null) {
+        typed.setAllowable(list(typed.getAllowable(), this::value));
+      }
+    }
+    return type;
+  }
+
+  /**
+   * Resolving a reference copies its target's ext into the reference's, which a frozen map can't
+   * take, so that is done here instead.
+   */
+  private void mergeReferences(BaseType type, Map<String, BaseType> topLevel) {
+    if (type instanceof Structure) {
+      Utils.neverNull(((Structure) type).getProperties())
+          .forEach(p -> mergeReferences(p, topLevel));
+    } else if (type instanceof List) {
+      mergeReferences(((List) type).getContains(), topLevel);
+    } else if (type instanceof Reference) {
+      BaseType target = topLevel.get(((Reference) type).getRef());
+      if (target != null && !target.ext().isEmpty()) {
+        Map<String, JsonNode> merged = new LinkedHashMap<>(type.ext());
+        merged.putAll(target.ext());
+        type.setExt(ext(merged));
+      }
+    }
+  }
+
+  private Value value(Value value) {
+    value.setValue(node(value.getValue()));
+    value.setDescription(intern(value.getDescription()));
+    value.setComment(intern(value.getComment()));
+    return value;
+  }
+
+  /** Null and empty lists become the shared empty list, so nothing creates one lazily later. */
+  private static <T> java.util.List<T> list(java.util.List<T> values, Function<T, T> freeze) {
+    if (values == null || values.isEmpty()) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<T> builder = ImmutableList.builderWithExpectedSize(values.size());
+    values.stream().filter(Objects::nonNull).map(freeze).forEach(builder::add);
+    return builder.build();
+  }
+
+  private Map<String, JsonNode> ext(Map<String, JsonNode> ext) {
+    if (ext == null || ext.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    if (ext.containsValue(null)) {
+      Map<String, JsonNode> copy = new LinkedHashMap<>();
+      ext.forEach((key, node) -> copy.put(intern(key), node(node)));
+      return Collections.unmodifiableMap(copy);
+    }
+    ImmutableMap.Builder<String, JsonNode> builder = ImmutableMap.builder();
+    ext.forEach((key, node) -> builder.put(intern(key), node(node)));
+    return builder.build();
+  }
+
+  /** Rebuilds a tree from shared subtrees, bottom up, and returns the shared equal tree. */
+  private JsonNode node(JsonNode node) {
+    if (node == null) {
+      return null;
+    }
+    if (node.isObject()) {
+      ObjectNode copy = JsonNodeFactory.instance.objectNode();
+      node.fields().forEachRemaining(e -> copy.set(intern(e.getKey()), node(e.getValue())));
+      node = copy;
+    } else if (node.isArray()) {
+      ArrayNode copy = JsonNodeFactory.instance.arrayNode(node.size());
+      node.forEach(child -> copy.add(node(child)));
+      node = copy;
+    } else if (node.isTextual()) {
+      node = JsonNodeFactory.instance.textNode(intern(node.textValue()));
+    }
+    JsonNode shared = node;
+    return nodes.computeIfAbsent(node.toString(), key -> shared);
+  }
+
+  private String intern(String value) {
+    return value == null ? null : strings.computeIfAbsent(value, Function.identity());
+  }
+}
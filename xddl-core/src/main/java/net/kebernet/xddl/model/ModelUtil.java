@@ -56,7 +56,10 @@ public abstract class ModelUtil {
     maybeSet(newValue::setDescription, reference.getDescription(), originalValue.getDescription());
     newValue.setRequired(originalValue.getRequired());
     Map<String, JsonNode> ext = reference.ext();
-    ofNullable(originalValue.getExt()).ifPresent(ext::putAll);
+    // Only when something changes, as a frozen reference already holds its target's ext.
+    ofNullable(originalValue.getExt())
+        .filter(original -> !ext.entrySet().containsAll(original.entrySet()))
+        .ifPresent(ext::putAll);
     newValue.setExt(ext);
     return newValue;
   }
@@ -107,6 +107,16 @@ public class Specification implements HasExtensions {
     return this.deletions;
   }
 
+  /**
+   * Returns a compact, read-only copy of this specification. Use a {@link Freezer} to freeze
+   * several that should share what they have in common.
+   *
+   * @return the frozen copy.
+   */
+  public Specification freeze() {
+    return new Freezer().freeze(this);
+  }
+
   @Override
   public String toString() {
     try {
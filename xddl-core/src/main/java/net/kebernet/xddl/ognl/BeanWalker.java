@@ -15,55 +15,163 @@
  */
 package net.kebernet.xddl.ognl;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
-import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
+/**
+ * Walks an object graph breadth first through its bean properties. The properties of each class
+ * are introspected once, and read and written through cached method handles.
+ */
 @SuppressWarnings("unused")
 public class BeanWalker {
+  private static final ClassValue<List<Property>> PROPERTIES =
+      new ClassValue<List<Property>>() {
+        @Override
+        protected List<Property> computeValue(Class<?> type) {
+          return Property.of(type);
+        }
+      };
 
   private final Set<Object> visited = Sets.newIdentityHashSet();
-  private final LinkedList<Object> queue = new LinkedList<>();
-  private final Predicate<PropertyDescriptor> propertyFilter;
+  private final Deque<Object> queue = new ArrayDeque<>();
+  private final Map<Class<?>, List<Property>> filtered = new HashMap<>();
+  private final Predicate<Property> propertyFilter;
 
-  public BeanWalker(Object rootBean, Predicate<PropertyDescriptor> propertyFilter) {
-    queue.add(rootBean);
+  public BeanWalker(Object rootBean, Predicate<Property> propertyFilter) {
+    if (rootBean != null) {
+      queue.add(rootBean);
+    }
     this.propertyFilter = propertyFilter;
   }
 
   public void apply(final PropertyVisitor visitor) {
-    try {
-      while (!queue.isEmpty()) {
-        final Object current = queue.pollFirst();
-        if (current == null) break;
-        visited.add(current);
-        BeanInfo bd = Introspector.getBeanInfo(current.getClass());
-        Arrays.stream(bd.getPropertyDescriptors())
-            .filter(propertyFilter)
-            .forEach(
-                pd ->
-                    visitor
-                        .visit(pd, current)
-                        .ifPresent(
-                            result -> {
-                              result.removeAll(visited);
-                              queue.addAll(result);
-                            }));
+    while (!queue.isEmpty()) {
+      final Object current = queue.pollFirst();
+      if (!visited.add(current)) {
+        continue;
+      }
+      for (Property property : filtered.computeIfAbsent(current.getClass(), this::properties)) {
+        visitor
+            .visit(property, current)
+            .ifPresent(
+                result ->
+                    result.stream()
+                        .filter(o -> o != null && !visited.contains(o))
+                        .forEach(queue::add));
       }
-
-    } catch (IntrospectionException e) {
-      throw new IllegalStateException(e);
     }
   }
 
+  private List<Property> properties(Class<?> type) {
+    return PROPERTIES.get(type).stream().filter(propertyFilter).collect(Collectors.toList());
+  }
+
   public interface PropertyVisitor {
-    Optional<Set<Object>> visit(PropertyDescriptor property, Object target);
+    /** @return the objects to walk next, if any. */
+    Optional<? extends Collection<?>> visit(Property property, Object target);
+  }
+
+  /** A readable bean property. */
+  public static final class Property {
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER =
+        MethodType.methodType(void.class, Object.class, Object.class);
+    private final String name;
+    private final Class<?> type;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    private Property(String name, Class<?> type, MethodHandle getter, MethodHandle setter) {
+      this.name = name;
+      this.type = type;
+      this.getter = getter;
+      this.setter = setter;
+    }
+
+    private static List<Property> of(Class<?> type) {
+      try {
+        ImmutableList.Builder<Property> properties = ImmutableList.builder();
+        for (PropertyDescriptor pd : Introspector.getBeanInfo(type).getPropertyDescriptors()) {
+          MethodHandle getter = handle(pd.getReadMethod(), GETTER);
+          if (getter != null) {
+            properties.add(
+                new Property(
+                    pd.getName(),
+                    pd.getPropertyType(),
+                    getter,
+                    handle(pd.getWriteMethod(), SETTER)));
+          }
+        }
+        return properties.build();
+      } catch (IntrospectionException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /** The method as a handle of the given erased type, or null if it can't be accessed. */
+    private static MethodHandle handle(Method method, MethodType methodType) {
+      if (method == null) {
+        return null;
+      }
+      try {
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method).asType(methodType);
+      } catch (IllegalAccessException | RuntimeException e) {
+        return null;
+      }
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Class<?> getType() {
+      return type;
+    }
+
+    public boolean isWritable() {
+      return setter != null;
+    }
+
+    public Object get(Object target) {
+      try {
+        return (Object) getter.invokeExact(target);
+      } catch (Throwable t) {
+        Throwables.throwIfUnchecked(t);
+        throw new IllegalStateException(t);
+      }
+    }
+
+    public void set(Object target, Object value) {
+      try {
+        setter.invokeExact(target, value);
+      } catch (Throwable t) {
+        Throwables.throwIfUnchecked(t);
+        throw new IllegalStateException(t);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return type.getSimpleName() + " " + name;
+    }
   }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.ognl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Sets;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import net.kebernet.xddl.model.BaseType;
+import net.kebernet.xddl.model.List;
+import net.kebernet.xddl.model.Reference;
+import net.kebernet.xddl.model.Specification;
+import net.kebernet.xddl.model.Structure;
+import net.kebernet.xddl.model.Type;
+import net.kebernet.xddl.model.Utils;
+import net.kebernet.xddl.model.Value;
+
+/**
+ * Walks a specification through the fields of the model, rather than by introspection, visiting
+ * each string field and each ext value once. The specification's own fields are visited before
+ * its ext and its types, so templates further down can refer to them.
+ */
+public class ModelWalker {
+  private final Set<Object> visited = Sets.newIdentityHashSet();
+  private final Visitor visitor;
+
+  public ModelWalker(Visitor visitor) {
+    this.visitor = visitor;
+  }
+
+  public void walk(Specification specification) {
+    text(specification.getTitle(), specification::setTitle);
+    text(specification.getDescription(), specification::setDescription);
+    text(specification.getComment(), specification::setComment);
+    text(specification.getVersion(), specification::setVersion);
+    text(specification.getEntryRef(), specification::setEntryRef);
+    ext(specification.getExt());
+    Utils.neverNull(specification.getTypes()).forEach(this::walk);
+    Utils.neverNull(specification.getStructures()).forEach(this::walk);
+    Utils.neverNull(specification.getDeletions()).forEach(this::walk);
+  }
+
+  public void walk(BaseType<?> type) {
+    if (type == null || !visited.add(type)) {
+      return;
+    }
+    text(type.getName(), type::setName);
+    text(type.getDescription(), type::setDescription);
+    text(type.getComment(), type::setComment);
+    ext(type.getExt());
+    if (type instanceof Type) {
+      Utils.neverNull(((Type) type).getExamples()).forEach(this::walk);
+      Utils.neverNull(((Type) type).getAllowable()).forEach(this::walk);
+    } else if (type instanceof Structure) {
+      Utils.neverNull(((Structure) type).getProperties()).forEach(this::walk);
+    } else if (type instanceof List) {
+      walk(((List) type).getContains());
+    } else if (type instanceof Reference) {
+      Reference reference = (Reference) type;
+      text(reference.getRef(), reference::setRef);
+    }
+  }
+
+  private void walk(Value value) {
+    if (value == null || !visited.add(value)) {
+      return;
+    }
+    text(value.getDescription(), value::setDescription);
+    text(value.getComment(), value::setComment);
+  }
+
+  private void ext(Map<String, JsonNode> ext) {
+    if (ext == null || !visited.add(ext)) {
+      return;
+    }
+    ext.values().stream()
+        .filter(node -> node != null && visited.add(node))
+        .forEach(visitor::visitNode);
+  }
+
+  private void text(String value, Consumer<String> setter) {
+    if (value == null) {
+      return;
+    }
+    String result = visitor.visitText(value);
+    if (result != value) {
+      setter.accept(result);
+    }
+  }
+
+  public interface Visitor {
+    /**
+     * @param value a string field of the model.
+     * @return the value to set the field to, or the same instance to leave it as it is.
+     */
+    String visitText(String value);
+
+    /** @param node an ext value, which may be changed in place. */
+    void visitNode(JsonNode node);
+  }
+}
@@ -16,39 +16,27 @@
 package net.kebernet.xddl.ognl;
 
 import static net.kebernet.xddl.model.ModelUtil.forEach;
-import static net.kebernet.xddl.model.ModelUtil.neverNegative;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import java.beans.PropertyDescriptor;
-import java.lang.reflect.InvocationTargetException;
+import com.fasterxml.jackson.databind.node.TextNode;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.function.Predicate;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import net.kebernet.xddl.Loader;
 import net.kebernet.xddl.model.BaseType;
 import net.kebernet.xddl.model.Specification;
 import net.kebernet.xddl.model.Utils;
-import ognl.Ognl;
 
-public class OgnlTemplater implements BeanWalker.PropertyVisitor {
-  private static final Pattern PATTERN = Pattern.compile("[^\\\\]?(\\$\\{(\\\\}|[^}])*})");
-  private static final Predicate<PropertyDescriptor> predicate = pd -> // is read/write
-      pd.getReadMethod() != null
-              // is collection or string.
-              && ((Collection.class.isAssignableFrom(pd.getPropertyType())
-                      || Map.class.isAssignableFrom(pd.getPropertyType()))
-                  || BaseType.class.isAssignableFrom(pd.getPropertyType())
-                  || (pd.getPropertyType() == String.class && pd.getWriteMethod() != null));
+public class OgnlTemplater implements ModelWalker.Visitor, BeanWalker.PropertyVisitor {
+  private static final Predicate<BeanWalker.Property> predicate = p -> // is collection or string.
+      (Collection.class.isAssignableFrom(p.getType()) || Map.class.isAssignableFrom(p.getType()))
+          || BaseType.class.isAssignableFrom(p.getType())
+          || (p.getType() == String.class && p.isWritable());
   private final Object target;
   private final Map<String, Object> context = new HashMap<>();
 
@@ -64,64 +52,60 @@ public class OgnlTemplater implements BeanWalker.PropertyVisitor {
     this.context.putAll(context);
   }
 
+  /**
+   * Fills the templates in the target. A specification is walked through its model, anything else
+   * through its bean properties.
+   */
   public void run() {
-    BeanWalker beanWalker = new BeanWalker(target, predicate);
-    beanWalker.apply(this);
+    if (target instanceof Specification) {
+      new ModelWalker(this).walk((Specification) target);
+    } else {
+      new BeanWalker(target, predicate).apply(this);
+    }
   }
 
   @Override
-  public Optional<Set<Object>> visit(PropertyDescriptor property, Object target) {
-    try {
-      property.getReadMethod().setAccessible(true);
-      if (Collection.class.isAssignableFrom(property.getPropertyType())) {
-        return Optional.ofNullable((Collection) property.getReadMethod().invoke(target))
-            .map(this::filterJsonNodes)
-            .map(HashSet::new);
-      }
-      if (Map.class.isAssignableFrom(property.getPropertyType())) {
-        return Optional.ofNullable((Map) property.getReadMethod().invoke(target))
-            .map(Map::values)
-            .map(this::filterJsonNodes)
-            .map(HashSet::new);
-      }
-      property.getWriteMethod().setAccessible(true);
-      Object value = property.getReadMethod().invoke(target);
-      if (value instanceof String) {
-        Optional.of((String) value)
-            .map(this::fillTemplate)
-            .ifPresent(
-                s -> {
-                  try {
-                    property.getWriteMethod().invoke(target, s);
-                  } catch (IllegalAccessException | InvocationTargetException e) {
-                    throw new IllegalStateException(e);
-                  }
-                });
-        return Optional.empty();
-      } else if (value != null) {
-        new BeanWalker(value, predicate).apply(this);
-        return Optional.of(Collections.singleton(value));
-      } else {
-        return Optional.empty();
+  public String visitText(String value) {
+    return fillTemplate(value);
+  }
+
+  @Override
+  public void visitNode(JsonNode node) {
+    doNode(node);
+  }
+
+  @Override
+  public Optional<? extends Collection<?>> visit(BeanWalker.Property property, Object target) {
+    if (Collection.class.isAssignableFrom(property.getType())) {
+      return Optional.ofNullable((Collection<?>) property.get(target)).map(this::filterJsonNodes);
+    }
+    if (Map.class.isAssignableFrom(property.getType())) {
+      return Optional.ofNullable((Map<?, ?>) property.get(target))
+          .map(Map::values)
+          .map(this::filterJsonNodes);
+    }
+    Object value = property.get(target);
+    if (value instanceof String) {
+      String filled = fillTemplate((String) value);
+      if (filled != value) {
+        property.set(target, filled);
       }
-    } catch (IllegalAccessException | InvocationTargetException e) {
-      throw new IllegalStateException(e);
+      return Optional.empty();
     }
+    return Optional.ofNullable(value).map(Collections::singleton);
   }
 
-  @SuppressWarnings("unchecked")
-  private Collection filterJsonNodes(Collection collection) {
-    return (Collection)
-        collection.stream()
-            .filter(
-                o -> {
-                  if (o instanceof JsonNode) {
-                    doNode((JsonNode) o);
-                    return false;
-                  }
-                  return true;
-                })
-            .collect(Collectors.toList());
+  private Collection<?> filterJsonNodes(Collection<?> collection) {
+    return collection.stream()
+        .filter(
+            o -> {
+              if (o instanceof JsonNode) {
+                doNode((JsonNode) o);
+                return false;
+              }
+              return true;
+            })
+        .collect(Collectors.toList());
   }
 
   private void doNode(JsonNode o) {
@@ -131,7 +115,7 @@ public class OgnlTemplater implements BeanWalker.PropertyVisitor {
         entry -> {
           if (entry.getValue().isTextual() && entry.getValue().asText().contains("${")) {
             String newValue = fillTemplate(entry.getValue().asText());
-            updates.put(entry.getKey(), Loader.mapper().valueToTree(newValue));
+            updates.put(entry.getKey(), TextNode.valueOf(newValue));
           } else if (entry.getValue().isObject()) {
             doNode(entry.getValue());
           } else if (entry.getValue().isArray()) {
@@ -140,7 +124,11 @@ public class OgnlTemplater implements BeanWalker.PropertyVisitor {
               if (array.get(i).isObject()) {
                 doNode(array.get(i));
               } else if (array.get(i).isTextual()) {
-                array.set(i, Loader.mapper().valueToTree(fillTemplate(array.get(i).asText())));
+                String text = array.get(i).asText();
+                String newValue = fillTemplate(text);
+                if (newValue != text) {
+                  array.set(i, TextNode.valueOf(newValue));
+                }
               }
             }
           }
@@ -154,38 +142,19 @@ public class OgnlTemplater implements BeanWalker.PropertyVisitor {
   /**
    * This method fills a template containing OGNL expressions wrapped inside ${} blocks. The root
    * context of the OGNL evaluation will contain "specification" with the current specification
-   * object fully populated, and you can pass additional objects in the map
+   * object fully populated, and you can pass additional objects in the map.
+   *
+   * <p>A template without expressions is returned as it is, and others are compiled once and
+   * cached. <code>\${</code> is a literal <code>${</code>, and <code>\}</code> is a <code>}</code>
+   * inside an expression.
    *
    * @param template The template to read from.
    * @return String value of the resulting applied template.
    */
   public String fillTemplate(String template) {
-    template = Utils.neverNull(template);
-    StringBuilder result = new StringBuilder();
-
-    Matcher matcher = PATTERN.matcher(template);
-    int nextText = 0;
-    while (!template.isEmpty() && matcher.find()) {
-      int start = matcher.start();
-      char startChar = template.charAt(start);
-      if (startChar != '$') {
-        result.append(template, neverNegative(start - 1), start + 1);
-        start++;
-      }
-      String expression = template.substring(start, matcher.end() - 1).replaceFirst("\\$\\{", "");
-      try {
-        Object exp = Ognl.parseExpression(expression);
-        Object evaluated = Ognl.getValue(exp, context);
-        result.append(evaluated);
-      } catch (Exception e) {
-        e.printStackTrace();
-        throw new IllegalStateException("OGNL Failed [" + expression + "] in:\n" + template);
-      }
-      nextText = matcher.end();
-    }
-    if (nextText < template.length()) {
-      result.append(template.substring(neverNegative(nextText)));
+    if (template == null || !template.contains("${")) {
+      return Utils.neverNull(template);
     }
-    return result.toString();
+    return Template.compile(template).fill(context);
   }
 }
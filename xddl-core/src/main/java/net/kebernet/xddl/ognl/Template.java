@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.ognl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import ognl.Ognl;
+import ognl.OgnlException;
+
+/**
+ * A template string compiled once into its literal text and the parsed OGNL expressions between
+ * it. Expressions that are constant are evaluated when compiling and kept as literal text.
+ *
+ * <p>Compiled templates and parsed expressions are kept in bounded caches shared by every
+ * templater, as the same few expressions tend to repeat all through a specification. The sizes
+ * can be changed with the {@code xddl.ognl.templateCacheSize} and {@code
+ * xddl.ognl.expressionCacheSize} system properties.
+ */
+final class Template {
+  private static final Cache<String, Template> TEMPLATES =
+      CacheBuilder.newBuilder()
+          .maximumSize(Integer.getInteger("xddl.ognl.templateCacheSize", 10_000))
+          .build();
+  private static final Cache<String, Object> EXPRESSIONS =
+      CacheBuilder.newBuilder()
+          .maximumSize(Integer.getInteger("xddl.ognl.expressionCacheSize", 10_000))
+          .build();
+
+  private final String source;
+  /** Literal text as a String, or an {@link Expression}. */
+  private final List<Object> segments;
+
+  private Template(String source, List<Object> segments) {
+    this.source = source;
+    this.segments = segments;
+  }
+
+  /**
+   * @param source the template, which must not be null
+   * @return the compiled template, from the cache if it has been compiled before.
+   * @throws IllegalStateException if an expression doesn't parse.
+   */
+  static Template compile(String source) {
+    Template template = TEMPLATES.getIfPresent(source);
+    if (template == null) {
+      template = tokenize(source);
+      TEMPLATES.put(source, template);
+    }
+    return template;
+  }
+
+  /**
+   * Reads the template in a single pass. <code>\${</code> is a literal <code>${</code>,
+   * <code>\}</code> inside an expression is a <code>}</code> that doesn't close it, and a
+   * <code>${</code> that is never closed is literal text.
+   */
+  private static Template tokenize(String source) {
+    List<Object> segments = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
+    int length = source.length();
+    int i = 0;
+    while (i < length) {
+      char c = source.charAt(i);
+      if (c == '\\' && source.startsWith("${", i + 1)) {
+        literal.append("${");
+        i += 3;
+      } else if (c == '$' && source.startsWith("{", i + 1)) {
+        int end = close(source, i + 2);
+        if (end < 0) {
+          literal.append(source, i, length);
+          break;
+        }
+        String expression = source.substring(i + 2, end).replace("\\}", "}");
+        Object tree = parse(expression, source);
+        if (isConstant(tree)) {
+          literal.append(evaluate(expression, tree, Collections.emptyMap(), source));
+        } else {
+          if (literal.length() > 0) {
+            segments.add(literal.toString());
+            literal.setLength(0);
+          }
+          segments.add(new Expression(expression, tree));
+        }
+        i = end + 1;
+      } else {
+        literal.append(c);
+        i++;
+      }
+    }
+    if (literal.length() > 0 || segments.isEmpty()) {
+      segments.add(literal.toString());
+    }
+    return new Template(source, Collections.unmodifiableList(segments));
+  }
+
+  /** The index of the brace closing the expression starting at {@code from}, or -1. */
+  private static int close(String source, int from) {
+    for (int i = from; i < source.length(); i++) {
+      char c = source.charAt(i);
+      if (c == '\\' && i + 1 < source.length() && source.charAt(i + 1) == '}') {
+        i++;
+      } else if (c == '}') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static Object parse(String expression, String source) {
+    Object tree = EXPRESSIONS.getIfPresent(expression);
+    if (tree == null) {
+      try {
+        tree = Ognl.parseExpression(expression);
+      } catch (OgnlException e) {
+        throw failed(expression, source, e);
+      }
+      EXPRESSIONS.put(expression, tree);
+    }
+    return tree;
+  }
+
+  private static boolean isConstant(Object tree) {
+    try {
+      return Ognl.isConstant(tree, Collections.emptyMap());
+    } catch (OgnlException e) {
+      return false;
+    }
+  }
+
+  private static Object evaluate(
+      String expression, Object tree, Map<String, Object> context, String source) {
+    try {
+      return Ognl.getValue(tree, context);
+    } catch (Exception e) {
+      throw failed(expression, source, e);
+    }
+  }
+
+  private static IllegalStateException failed(String expression, String source, Exception e) {
+    return new IllegalStateException("OGNL Failed [" + expression + "] in:\n" + source, e);
+  }
+
+  /** @return true if the template has no expressions left to evaluate. */
+  boolean isConstant() {
+    return segments.size() == 1 && segments.get(0) instanceof String;
+  }
+
+  /**
+   * @param context the root of the OGNL evaluation.
+   * @return the template with its expressions evaluated.
+   */
+  String fill(Map<String, Object> context) {
+    if (isConstant()) {
+      return (String) segments.get(0);
+    }
+    StringBuilder result = new StringBuilder();
+    for (Object segment : segments) {
+      if (segment instanceof Expression) {
+        Expression expression = (Expression) segment;
+        result.append(evaluate(expression.source, expression.tree, context, source));
+      } else {
+        result.append(segment);
+      }
+    }
+    return result.toString();
+  }
+
+  private static final class Expression {
+    private final String source;
+    private final Object tree;
+
+    private Expression(String source, Object tree) {
+      this.source = source;
+      this.tree = tree;
+    }
+  }
+}
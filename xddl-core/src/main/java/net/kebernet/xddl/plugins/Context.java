@@ -20,10 +20,16 @@ import static java.util.Optional.ofNullable;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.util.HashMap;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.File;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import net.kebernet.xddl.model.*;
@@ -33,7 +39,21 @@ import net.kebernet.xddl.model.*;
 public class Context {
   private final ObjectMapper mapper;
   private final Specification specification;
-  private Map<String, BaseType> references = new HashMap<>();
+  private Map<String, BaseType> references = new LinkedHashMap<>();
+  /** Which top level types refer to which, as of when this context was created. */
+  private final DependencyGraph dependencies;
+  /** The file the specification was read from, if it was read from one. */
+  private File specificationFile;
+  /** Merged references, keyed by the identity of the reference they were merged from. */
+  @Getter(AccessLevel.NONE)
+  private final Cache<Reference, Resolution> resolutions =
+      CacheBuilder.newBuilder().weakKeys().build();
+
+  @Getter(AccessLevel.NONE)
+  private final LongAdder resolutionHits = new LongAdder();
+
+  @Getter(AccessLevel.NONE)
+  private final LongAdder resolutionMisses = new LongAdder();
 
   public Context(ObjectMapper mapper, Specification specification) {
     this.mapper = mapper;
@@ -41,6 +61,7 @@ public class Context {
     specification.types().forEach(this::checkAndInsert);
     specification.structures().forEach(this::checkAndInsert);
     specification.structures().forEach(this::validateReferences);
+    this.dependencies = new DependencyGraph(references);
   }
 
   private void validateReferences(Structure structure) {
@@ -95,7 +116,11 @@ public class Context {
 
   /**
    * Resolves a reference to the target contains and merges the metadata from the reference into the
-   * new fully resolved contains.
+   * new fully resolved contains. The merge is remembered for the reference, and repeated calls
+   * return the same instance until the reference or its target changes, so the result is shared and
+   * read-only. Renaming it, or changing its description or required flag, makes the next call for
+   * the reference throw; callers that change the result use {@link
+   * #resolveReferenceCopy(Reference)}.
    *
    * @param reference The reference to resolve
    * @param <T> The target contains
@@ -103,8 +128,68 @@ public class Context {
    */
   @SuppressWarnings("unchecked")
   public <T extends BaseType<T>> Optional<T> resolveReference(Reference reference) {
-    Optional<T> result = ofNullable((T) references.get(reference.getRef()));
-    return result.map(t -> t.merge(reference));
+    BaseType target = references.get(reference.getRef());
+    if (target == null) {
+      return Optional.empty();
+    }
+    Resolution resolution = resolutions.getIfPresent(reference);
+    if (resolution != null && resolution.matches(reference, target)) {
+      return Optional.of((T) reuse(resolution, reference));
+    }
+    // Merging copies the target's ext into the reference's, so one reference merges at a time.
+    synchronized (reference) {
+      resolution = resolutions.getIfPresent(reference);
+      if (resolution != null && resolution.matches(reference, target)) {
+        return Optional.of((T) reuse(resolution, reference));
+      }
+      resolutionMisses.increment();
+      T merged = (T) target.merge(reference);
+      resolutions.put(reference, new Resolution(reference, target, merged));
+      return Optional.of(merged);
+    }
+  }
+
+  /**
+   * Resolves a reference like {@link #resolveReference(Reference)}, but into a new merge that
+   * isn't shared, so the caller may rename or otherwise change it. Its ext is a copy of the
+   * reference's; a structure's properties are still its target's and are not to be changed.
+   *
+   * @param reference The reference to resolve
+   * @param <T> The target contains
+   * @return The contains or empty.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends BaseType<T>> Optional<T> resolveReferenceCopy(Reference reference) {
+    BaseType target = references.get(reference.getRef());
+    if (target == null) {
+      return Optional.empty();
+    }
+    T merged;
+    synchronized (reference) {
+      merged = (T) target.merge(reference);
+    }
+    merged.setExt(new LinkedHashMap<>(merged.ext()));
+    return Optional.of(merged);
+  }
+
+  private BaseType reuse(Resolution resolution, Reference reference) {
+    if (resolution.modified()) {
+      throw stateException(
+          "The resolution of this reference was changed; use resolveReferenceCopy to change one",
+          reference);
+    }
+    resolutionHits.increment();
+    return resolution.merged;
+  }
+
+  /** @return how many times {@link #resolveReference(Reference)} reused an earlier merge. */
+  public long getResolutionHits() {
+    return resolutionHits.sum();
+  }
+
+  /** @return how many times {@link #resolveReference(Reference)} had to merge. */
+  public long getResolutionMisses() {
+    return resolutionMisses.sum();
   }
 
   /**
@@ -114,7 +199,7 @@ public class Context {
    * @return true if it is a structure.
    */
   public boolean pointsToType(Reference reference) {
-    return resolveReference(reference).filter(r -> r instanceof Type).isPresent();
+    return references.get(reference.getRef()) instanceof Type;
   }
 
   /**
@@ -124,7 +209,7 @@ public class Context {
    * @return true if it is a structure.
    */
   public boolean pointsToStructure(Reference reference) {
-    return resolveReference(reference).filter(r -> r instanceof Structure).isPresent();
+    return references.get(reference.getRef()) instanceof Structure;
   }
 
   @SuppressWarnings("unused")
@@ -183,9 +268,7 @@ public class Context {
   }
 
   public Structure entryRefStructure() {
-    Reference reference = new Reference();
-    reference.setRef(specification.getEntryRef());
-    return resolveReference(reference)
+    return ofNullable(references.get(specification.getEntryRef()))
         .filter(r -> r instanceof Structure)
         .map(r -> (Structure) r)
         .orElseThrow(
@@ -194,4 +277,59 @@ public class Context {
                     "Could not resolve a structure from entryRef " + specification.getEntryRef(),
                     null));
   }
+
+  /**
+   * A merged reference, with the fields it was merged from, so a reference or target that was
+   * changed in place since is merged again, and the fields it was merged into, so a caller that
+   * changed the shared result is caught.
+   */
+  private static class Resolution {
+    private final String ref;
+    private final String name;
+    private final String description;
+    private final Map<String, JsonNode> ext;
+    private final int extSize;
+    private final BaseType target;
+    private final String targetName;
+    private final String targetDescription;
+    private final Map<String, JsonNode> targetExt;
+    private final BaseType merged;
+    private final String mergedName;
+    private final String mergedDescription;
+    private final Boolean mergedRequired;
+
+    private Resolution(Reference reference, BaseType target, BaseType merged) {
+      this.ref = reference.getRef();
+      this.name = reference.getName();
+      this.description = reference.getDescription();
+      this.ext = reference.getExt();
+      this.extSize = ext == null ? 0 : ext.size();
+      this.target = target;
+      this.targetName = target.getName();
+      this.targetDescription = target.getDescription();
+      this.targetExt = target.getExt();
+      this.merged = merged;
+      this.mergedName = merged.getName();
+      this.mergedDescription = merged.getDescription();
+      this.mergedRequired = merged.getRequired();
+    }
+
+    private boolean matches(Reference reference, BaseType target) {
+      return this.target == target
+          && ext == reference.getExt()
+          && extSize == (ext == null ? 0 : ext.size())
+          && targetExt == target.getExt()
+          && Objects.equals(ref, reference.getRef())
+          && Objects.equals(name, reference.getName())
+          && Objects.equals(description, reference.getDescription())
+          && Objects.equals(targetName, target.getName())
+          && Objects.equals(targetDescription, target.getDescription());
+    }
+
+    private boolean modified() {
+      return !Objects.equals(mergedName, merged.getName())
+          || !Objects.equals(mergedDescription, merged.getDescription())
+          || !Objects.equals(mergedRequired, merged.getRequired());
+    }
+  }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.plugins;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.kebernet.xddl.model.BaseType;
+import net.kebernet.xddl.model.Reference;
+import net.kebernet.xddl.model.Structure;
+import net.kebernet.xddl.model.Utils;
+
+/**
+ * Which top level structures and types refer to which, through references in their properties,
+ * nested structures and list contents. Names are kept in the order the specification declares
+ * them, so every answer is stable from run to run.
+ */
+public class DependencyGraph {
+  private final Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+  private final Map<String, Set<String>> dependents = new LinkedHashMap<>();
+  private final Map<String, Integer> positions = new HashMap<>();
+
+  /** @param references the top level types and structures by name, in declaration order. */
+  DependencyGraph(Map<String, BaseType> references) {
+    references
+        .keySet()
+        .forEach(
+            name -> {
+              positions.put(name, positions.size());
+              dependents.put(name, new LinkedHashSet<>());
+            });
+    references.forEach(
+        (name, type) -> {
+          Set<String> uses = new LinkedHashSet<>();
+          collect(type, references, uses);
+          dependencies.put(name, uses);
+          uses.forEach(used -> dependents.get(used).add(name));
+        });
+  }
+
+  private static void collect(BaseType type, Map<String, BaseType> references, Set<String> uses) {
+    if (type instanceof Reference) {
+      String ref = ((Reference) type).getRef();
+      if (references.containsKey(ref)) {
+        uses.add(ref);
+      }
+    } else if (type instanceof Structure) {
+      Utils.neverNull(((Structure) type).getProperties())
+          .forEach(p -> collect(p, references, uses));
+    } else if (type instanceof net.kebernet.xddl.model.List) {
+      BaseType contains = ((net.kebernet.xddl.model.List) type).getContains();
+      if (contains != null) {
+        collect(contains, references, uses);
+      }
+    }
+  }
+
+  /** @return the names the given type refers to directly. */
+  public Set<String> dependenciesOf(String name) {
+    return Collections.unmodifiableSet(dependencies.getOrDefault(name, Collections.emptySet()));
+  }
+
+  /** @return the names that refer to the given type directly. */
+  public Set<String> dependentsOf(String name) {
+    return Collections.unmodifiableSet(dependents.getOrDefault(name, Collections.emptySet()));
+  }
+
+  /**
+   * Everything a change to the given types can affect.
+   *
+   * @param changed the changed names
+   * @return the changed names that are in the specification, and everything that depends on them
+   *     directly or indirectly, in declaration order.
+   */
+  public Set<String> impactOf(Collection<String> changed) {
+    Set<String> found = new HashSet<>();
+    Deque<String> queue = new ArrayDeque<>();
+    changed.stream().filter(dependents::containsKey).forEach(queue::add);
+    while (!queue.isEmpty()) {
+      String name = queue.poll();
+      if (found.add(name)) {
+        queue.addAll(dependents.get(name));
+      }
+    }
+    List<String> impact = new ArrayList<>(found);
+    impact.sort(Comparator.comparing(positions::get));
+    return new LinkedHashSet<>(impact);
+  }
+
+  /**
+   * Orders the names so that everything comes after what it refers to. The members of a cycle
+   * can't be ordered that way, so they are kept together in declaration order.
+   *
+   * @return every name in dependency order.
+   */
+  public List<String> topologicalOrder() {
+    List<String> order = new ArrayList<>();
+    // Tarjan's algorithm completes a component only after everything it refers to.
+    components().forEach(order::addAll);
+    return order;
+  }
+
+  /**
+   * @return each group of names that refer to each other in a cycle, including a structure that
+   *     refers to itself, in declaration order.
+   */
+  public List<List<String>> cycles() {
+    List<List<String>> cycles = new ArrayList<>();
+    for (List<String> component : components()) {
+      String first = component.get(0);
+      if (component.size() > 1 || dependencies.get(first).contains(first)) {
+        cycles.add(component);
+      }
+    }
+    cycles.sort(Comparator.comparing(cycle -> positions.get(cycle.get(0))));
+    return cycles;
+  }
+
+  /**
+   * Tarjan's strongly connected components, walked with an explicit stack so a long chain of
+   * references can't overflow the thread's stack.
+   */
+  private List<List<String>> components() {
+    Map<String, Integer> index = new HashMap<>();
+    Map<String, Integer> low = new HashMap<>();
+    Deque<String> stack = new ArrayDeque<>();
+    Set<String> onStack = new HashSet<>();
+    List<List<String>> components = new ArrayList<>();
+    for (String root : dependencies.keySet()) {
+      if (index.containsKey(root)) {
+        continue;
+      }
+      Deque<Frame> work = new ArrayDeque<>();
+      work.push(visit(root, index, low, stack, onStack));
+      while (!work.isEmpty()) {
+        Frame frame = work.peek();
+        if (frame.next.hasNext()) {
+          String used = frame.next.next();
+          if (!index.containsKey(used)) {
+            work.push(visit(used, index, low, stack, onStack));
+          } else if (onStack.contains(used)) {
+            low.put(frame.name, Math.min(low.get(frame.name), index.get(used)));
+          }
+          continue;
+        }
+        work.pop();
+        if (!work.isEmpty()) {
+          String parent = work.peek().name;
+          low.put(parent, Math.min(low.get(parent), low.get(frame.name)));
+        }
+        if (low.get(frame.name).equals(index.get(frame.name))) {
+          List<String> component = new ArrayList<>();
+          String member;
+          do {
+            member = stack.pop();
+            onStack.remove(member);
+            component.add(member);
+          } while (!member.equals(frame.name));
+          component.sort(Comparator.comparing(positions::get));
+          components.add(component);
+        }
+      }
+    }
+    return components;
+  }
+
+  private Frame visit(
+      String name,
+      Map<String, Integer> index,
+      Map<String, Integer> low,
+      Deque<String> stack,
+      Set<String> onStack) {
+    index.put(name, index.size());
+    low.put(name, index.get(name));
+    stack.push(name);
+    onStack.add(name);
+    return new Frame(name, dependencies.get(name).iterator());
+  }
+
+  private static class Frame {
+    private final String name;
+    private final Iterator<String> next;
+
+    private Frame(String name, Iterator<String> next) {
+      this.name = name;
+      this.next = next;
+    }
+  }
+}
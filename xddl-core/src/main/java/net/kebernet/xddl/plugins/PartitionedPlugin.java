@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A plugin whose output is made of independent parts, such as one class per structure, so the
+ * runner can generate them at the same time. The units share the context and must only read it.
+ */
+public interface PartitionedPlugin extends Plugin {
+
+  /**
+   * Lists the parts of the output. Anything the units share, such as options, is prepared here.
+   *
+   * @param context the generation context
+   * @param outputDirectory the directory to generate into
+   * @return units that can be generated in any order, or at the same time.
+   * @throws IOException if the shared preparation fails
+   */
+  List<WorkUnit> workUnits(Context context, File outputDirectory) throws IOException;
+
+  /**
+   * Called once every unit has been generated, for output that covers the whole specification.
+   *
+   * @param context the generation context
+   * @param outputDirectory the directory to generate into
+   * @return the result of {@link #generateArtifacts(Context, File)}
+   * @throws IOException if an artifact can't be written
+   */
+  String finish(Context context, File outputDirectory) throws IOException;
+
+  /** Generates the units one after another. */
+  @Override
+  default String generateArtifacts(Context context, File outputDirectory) throws IOException {
+    for (WorkUnit unit : workUnits(context, outputDirectory)) {
+      unit.generate();
+    }
+    return finish(context, outputDirectory);
+  }
+}
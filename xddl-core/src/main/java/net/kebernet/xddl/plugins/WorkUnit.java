@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.plugins;
+
+import java.io.IOException;
+import lombok.Getter;
+
+/** One independently generated part of a {@link PartitionedPlugin}'s output. */
+public class WorkUnit {
+  /** What the unit generates, such as the structure's name, for reporting failures. */
+  @Getter private final String name;
+
+  private final Generator generator;
+
+  public WorkUnit(String name, Generator generator) {
+    this.name = name;
+    this.generator = generator;
+  }
+
+  public void generate() throws IOException {
+    generator.generate();
+  }
+
+  @FunctionalInterface
+  public interface Generator {
+    void generate() throws IOException;
+  }
+}
@@ -59,6 +59,11 @@ public class UnifyCommand implements HasStacktrace {
       description = "The version string of the unified file")
   private String newVersion;
 
+  @Parameter(
+      names = {"--previous-file", "-pf"},
+      description = "The unified file of the previous version, recorded as ext.glide.previous")
+  private File previousFile;
+
   @Parameter(names = "--help", description = "Show this help text", help = true)
   private boolean help;
 
@@ -67,6 +72,11 @@ public class UnifyCommand implements HasStacktrace {
 
   private Map<String, Object> vals;
 
+  @Parameter(
+      names = {"--parse-cache", "-pc"},
+      description = "Directory to cache parsed include and patch files in.")
+  private File parseCache;
+
   @Parameter(
       names = {"--vals-file", "-v"},
       description = "JSON file of values")
@@ -16,6 +16,7 @@
 package net.kebernet.xddl.unify;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import lombok.Builder;
 import net.kebernet.xddl.Loader;
 import net.kebernet.xddl.model.Specification;
@@ -24,21 +25,46 @@ import net.kebernet.xddl.model.Specification;
 public class UnifyRunner {
 
   private UnifyCommand command;
+  /**
+   * The input already in memory, unified in place of the command's input file, which is then only
+   * used in messages. It is changed in place.
+   */
+  private Specification input;
 
   public void run() throws IOException {
+    Loader.mapper().writeValue(command.getOutputFile(), unify());
+  }
+
+  /** @return the unified specification, without writing it. */
+  public Specification unify() {
     Loader loader =
         Loader.builder()
             .main(command.getInputFile())
+            .specification(input)
             .includes(command.getIncludes())
             .patches(command.getPatches())
             .vals(command.getVals())
             .valsFile(command.getValsFile())
             .scrubPatchesFromBaseline(command.isScrubPatch())
+            .parseCache(command.getParseCache())
             .build();
     Specification base = command.isEvaluateOgnl() ? loader.read() : loader.readWithoutEvaluate();
     if (command.getNewVersion() != null) {
       base.setVersion(command.getNewVersion());
     }
-    Loader.mapper().writeValue(command.getOutputFile(), base);
+    if (command.getPreviousFile() != null) {
+      Path directory = command.getOutputFile().getAbsoluteFile().getParentFile().toPath();
+      base.ext()
+          .put(
+              "glide",
+              Loader.mapper()
+                  .createObjectNode()
+                  .put(
+                      "previous",
+                      directory
+                          .relativize(command.getPreviousFile().getAbsoluteFile().toPath())
+                          .toString()));
+    }
+    return base;
   }
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.watch;
+
+import com.beust.jcommander.Parameter;
+import lombok.Getter;
+import lombok.Setter;
+import net.kebernet.xddl.generate.GenerateCommand;
+
+@Getter
+@Setter
+public class WatchCommand extends GenerateCommand {
+
+  @Parameter(
+      names = {"--debounce"},
+      description = "Milliseconds to wait for more changes before regenerating.")
+  private long debounce = 100;
+}
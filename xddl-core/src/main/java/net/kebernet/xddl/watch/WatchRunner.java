@@ -0,0 +1,232 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.watch;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import lombok.Builder;
+import net.kebernet.xddl.Loader;
+import net.kebernet.xddl.generate.GenerateRunner;
+import net.kebernet.xddl.model.Specification;
+import net.kebernet.xddl.model.Utils;
+
+/**
+ * Generates once, then watches the specification, vals file and include directories and
+ * generates again when they change. Reads go through a {@link net.kebernet.xddl.cache.ParseCache}
+ * so only the changed include files are parsed, and the plugins only run when a structure, type
+ * or the specification itself actually changed. Partitioned plugins then only regenerate the
+ * units for the changed types and the types that depend on them.
+ */
+@Builder
+public class WatchRunner {
+  /** The name reported when something outside the structures and types changes. */
+  static final String SPECIFICATION = "<specification>";
+
+  private static final String INCLUDE_SUFFIX = ".xddl.json";
+  private static final List<String> SEPARATELY_COMPARED = Arrays.asList("structures", "types");
+
+  private WatchCommand command;
+
+  public void run() throws IOException, InterruptedException {
+    File parseCache = command.getParseCache();
+    if (parseCache == null) {
+      parseCache = Files.createTempDirectory("xddl-watch").toFile();
+      parseCache.deleteOnExit();
+    }
+    GenerateRunner generator =
+        GenerateRunner.builder()
+            .specificationFile(command.getInputFile())
+            .outputDirectory(command.getOutputDirectory())
+            .plugins(command.getFormats())
+            .includes(command.getIncludes())
+            .vals(command.getVals())
+            .valsFile(command.getValsFile())
+            .parseCache(parseCache)
+            .parallelism(command.getParallelism())
+            .build();
+    // Plugins change the specification they generate from, so it is compared as it was loaded.
+    Specification loaded = generator.load();
+    Snapshot current = new Snapshot(loaded);
+    generator.generate(loaded);
+    System.out.println("Generated " + command.getFormats() + ", watching for changes.");
+
+    try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+      Set<Path> files = new HashSet<>();
+      Map<WatchKey, Path> includeKeys = new HashMap<>();
+      for (File file : Arrays.asList(command.getInputFile(), command.getValsFile())) {
+        if (file == null) {
+          continue;
+        }
+        Path path = file.toPath().toAbsolutePath();
+        files.add(path);
+        path.getParent().register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+      }
+      for (File include : Utils.neverNull(command.getIncludes())) {
+        registerTree(watcher, include.toPath().toAbsolutePath(), includeKeys);
+      }
+
+      while (!Thread.currentThread().isInterrupted()) {
+        Set<Path> changed = new TreeSet<>();
+        WatchKey key = watcher.take();
+        do {
+          collect(watcher, key, files, includeKeys, changed);
+        } while ((key = watcher.poll(command.getDebounce(), TimeUnit.MILLISECONDS)) != null);
+        if (changed.isEmpty()) {
+          continue;
+        }
+        long start = System.nanoTime();
+        try {
+          Specification next = generator.load();
+          Snapshot snapshot = new Snapshot(next);
+          Set<String> changes = changes(current, snapshot);
+          if (changes.isEmpty()) {
+            current = snapshot;
+            System.out.println(changed + " changed, but not the specification.");
+            continue;
+          }
+          generator.generate(next, changes.contains(SPECIFICATION) ? null : changes);
+          current = snapshot;
+          System.out.println(
+              "Regenerated for "
+                  + changes
+                  + " in "
+                  + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                  + "ms.");
+        } catch (RuntimeException | IOException e) {
+          // Keep watching: the next save usually fixes whatever the editor left half written.
+          System.err.println("Error: " + e.getMessage());
+          if (command.isStacktrace()) {
+            e.printStackTrace();
+          }
+        }
+      }
+    }
+  }
+
+  private static void collect(
+      WatchService watcher,
+      WatchKey key,
+      Set<Path> files,
+      Map<WatchKey, Path> includeKeys,
+      Set<Path> changed)
+      throws IOException {
+    Path directory = (Path) key.watchable();
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        changed.add(directory);
+        continue;
+      }
+      Path path = directory.resolve((Path) event.context());
+      if (includeKeys.containsKey(key)) {
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+          registerTree(watcher, path, includeKeys);
+          changed.add(path);
+        } else if (path.getFileName().toString().endsWith(INCLUDE_SUFFIX)) {
+          changed.add(path);
+        }
+      }
+      if (files.contains(path)) {
+        changed.add(path);
+      }
+    }
+    if (!key.reset()) {
+      includeKeys.remove(key);
+    }
+  }
+
+  /** WatchService only reports a directory's own entries, so every subdirectory is registered. */
+  private static void registerTree(WatchService watcher, Path root, Map<WatchKey, Path> keys)
+      throws IOException {
+    if (!Files.isDirectory(root)) {
+      return;
+    }
+    try (Stream<Path> directories = Files.walk(root)) {
+      for (Path directory : (Iterable<Path>) directories.filter(Files::isDirectory)::iterator) {
+        keys.put(
+            directory.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), directory);
+      }
+    }
+  }
+
+  /**
+   * Compares two readings of a specification.
+   *
+   * @return the names of the structures and types that were added, removed or changed, and {@link
+   *     #SPECIFICATION} if anything else did.
+   */
+  static Set<String> changes(Snapshot previous, Snapshot next) {
+    Set<String> changes = new TreeSet<>();
+    compare(previous.structures, next.structures, changes);
+    compare(previous.types, next.types, changes);
+    if (!previous.rest.equals(next.rest)) {
+      changes.add(SPECIFICATION);
+    }
+    return changes;
+  }
+
+  private static void compare(
+      Map<String, JsonNode> previous, Map<String, JsonNode> next, Set<String> changes) {
+    Map<String, JsonNode> before = new HashMap<>(previous);
+    next.forEach(
+        (name, tree) -> {
+          if (!tree.equals(before.remove(name))) {
+            changes.add(name);
+          }
+        });
+    changes.addAll(before.keySet());
+  }
+
+  /**
+   * The JSON trees of a specification as it was read. They are copies, so generating from the
+   * specification afterwards doesn't change them.
+   */
+  static final class Snapshot {
+    private final Map<String, JsonNode> structures = new HashMap<>();
+    private final Map<String, JsonNode> types = new HashMap<>();
+    private final ObjectNode rest;
+
+    Snapshot(Specification specification) {
+      ObjectMapper mapper = Loader.mapper();
+      specification.structures().forEach(t -> structures.put(t.getName(), mapper.valueToTree(t)));
+      specification.types().forEach(t -> types.put(t.getName(), mapper.valueToTree(t)));
+      rest = mapper.valueToTree(specification);
+      rest.remove(SEPARATELY_COMPARED);
+    }
+  }
+}
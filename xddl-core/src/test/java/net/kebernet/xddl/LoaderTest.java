@@ -16,11 +16,14 @@
 package net.kebernet.xddl;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 import com.google.common.io.CharStreams;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Collections;
 import java.util.stream.Collectors;
 import net.kebernet.xddl.model.BaseType;
@@ -80,4 +83,41 @@ public class LoaderTest {
                 OgnlTemplaterTest.class.getResourceAsStream("/prefixExpected.json")));
     assertThat(Loader.mapper().writeValueAsString(spec)).isEqualTo(value);
   }
+
+  @Test
+  public void testIncludesAreSortedByPath() {
+    Specification spec =
+        Loader.builder()
+            .main(new File("src/test/resources/empty.json"))
+            .includes(Collections.singletonList(new File("src/test/resources/includes-pass")))
+            .build()
+            .read();
+    assertThat(spec.structures().stream().map(BaseType::getName).collect(Collectors.toList()))
+        .containsExactly("Struct1", "Struct2")
+        .inOrder();
+    assertThat(spec.types().stream().map(BaseType::getName).collect(Collectors.toList()))
+        .containsExactly("int_type");
+  }
+
+  @Test
+  public void testParseErrorsNameTheFile() throws IOException {
+    File directory = new File("build/test/loaderErrors");
+    new File(directory, "nested").mkdirs();
+    Files.write(
+        new File(directory, "Good.xddl.json").toPath(),
+        "{\"@type\": \"Type\", \"name\": \"good\", \"core\": \"STRING\"}"
+            .getBytes(StandardCharsets.UTF_8));
+    File bad = new File(directory, "nested/Bad.xddl.json");
+    Files.write(bad.toPath(), "{\"@type\": ".getBytes(StandardCharsets.UTF_8));
+    try {
+      Loader.builder()
+          .main(new File("src/test/resources/empty.json"))
+          .includes(Collections.singletonList(directory))
+          .build()
+          .read();
+      fail("Expected a parse error");
+    } catch (RuntimeException e) {
+      assertThat(e.getMessage()).contains(bad.getAbsolutePath());
+    }
+  }
 }
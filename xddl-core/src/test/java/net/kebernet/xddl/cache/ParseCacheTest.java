@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.stream.Collectors;
+import net.kebernet.xddl.Loader;
+import net.kebernet.xddl.model.BaseType;
+import net.kebernet.xddl.model.Specification;
+import net.kebernet.xddl.model.Type;
+import net.kebernet.xddl.model.Utils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParseCacheTest {
+  private final ObjectMapper mapper = new ObjectMapper();
+  private File directory;
+  private File source;
+
+  @Before
+  public void setUp() throws IOException {
+    File root = new File("build/test/parseCache");
+    directory = new File(root, "cache");
+    source = new File(root, "type.xddl.json");
+    root.mkdirs();
+    for (File file : Utils.neverNull(directory.listFiles())) {
+      file.delete();
+    }
+    write("good");
+  }
+
+  @Test
+  public void testMissThenHit() throws IOException {
+    ParseCache cache = new ParseCache(directory);
+    assertThat(cache.read(source, mapper).getName()).isEqualTo("good");
+    BaseType cached = cache.read(source, mapper);
+    assertThat(cached).isInstanceOf(Type.class);
+    assertThat(cached.getName()).isEqualTo("good");
+    assertThat(cache.getMisses()).isEqualTo(1);
+    assertThat(cache.getHits()).isEqualTo(1);
+  }
+
+  @Test
+  public void testTouchedFileIsAHit() throws IOException {
+    ParseCache cache = new ParseCache(directory);
+    cache.read(source, mapper);
+    source.setLastModified(source.lastModified() - 60_000);
+    assertThat(cache.read(source, mapper).getName()).isEqualTo("good");
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertThat(new ParseCache(directory).verify().getValid()).isEqualTo(1);
+  }
+
+  @Test
+  public void testChangedFileIsAMiss() throws IOException {
+    ParseCache cache = new ParseCache(directory);
+    cache.read(source, mapper);
+    write("changed");
+    source.setLastModified(source.lastModified() - 60_000);
+    assertThat(cache.read(source, mapper).getName()).isEqualTo("changed");
+    assertThat(cache.getMisses()).isEqualTo(2);
+  }
+
+  @Test
+  public void testEntriesForAnotherModelAreMisses() throws IOException {
+    new ParseCache(directory, "older model").read(source, mapper);
+    ParseCache cache = new ParseCache(directory);
+    assertThat(cache.read(source, mapper).getName()).isEqualTo("good");
+    assertThat(cache.getHits()).isEqualTo(0);
+    assertThat(cache.getMisses()).isEqualTo(1);
+    assertThat(cache.read(source, mapper).getName()).isEqualTo("good");
+    assertThat(cache.getHits()).isEqualTo(1);
+  }
+
+  @Test
+  public void testVerifyDeletesCorruptEntries() throws IOException {
+    ParseCache cache = new ParseCache(directory);
+    cache.read(source, mapper);
+    File entry = cache.entryFile(source.getCanonicalPath());
+    try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+      file.seek(file.length() - 12);
+      int b = file.read();
+      file.seek(file.length() - 12);
+      file.write(~b);
+    }
+    ParseCache.Integrity integrity = cache.verify();
+    assertThat(integrity.getCorrupt()).isEqualTo(1);
+    assertThat(integrity.getValid()).isEqualTo(0);
+    assertThat(entry.exists()).isFalse();
+    assertThat(cache.read(source, mapper).getName()).isEqualTo("good");
+  }
+
+  @Test
+  public void testLoaderReadsThroughTheCache() {
+    for (int i = 0; i < 2; i++) {
+      Specification spec =
+          Loader.builder()
+              .main(new File("src/test/resources/empty.json"))
+              .includes(Collections.singletonList(new File("src/test/resources/includes-pass")))
+              .parseCache(directory)
+              .build()
+              .read();
+      assertThat(spec.structures().stream().map(BaseType::getName).collect(Collectors.toList()))
+          .containsExactly("Struct1", "Struct2")
+          .inOrder();
+    }
+    assertThat(new ParseCache(directory).verify().getValid()).isEqualTo(3);
+  }
+
+  private void write(String name) throws IOException {
+    Files.write(
+        source.toPath(),
+        ("{\"@type\": \"Type\", \"name\": \"" + name + "\", \"core\": \"STRING\"}")
+            .getBytes(StandardCharsets.UTF_8));
+  }
+}
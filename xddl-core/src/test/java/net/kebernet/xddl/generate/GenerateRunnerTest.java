@@ -16,13 +16,17 @@
 package net.kebernet.xddl.generate;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Set;
 import java.util.stream.Collectors;
 import net.kebernet.xddl.model.BaseType;
+import net.kebernet.xddl.model.Specification;
+import net.kebernet.xddl.plugins.GeneralException;
 import org.junit.Test;
 
 public class GenerateRunnerTest {
@@ -59,4 +63,105 @@ public class GenerateRunnerTest {
             .build();
     runner.run();
   }
+
+  @Test
+  public void testPluginsRunInParallelOnTheirOwnCopies() throws IOException {
+    GenerateRunner runner =
+        GenerateRunner.builder()
+            .plugins(Arrays.asList("first", "second"))
+            .parallelism(2)
+            .includes(Collections.singletonList(new File("./src/test/resources/includes-pass")))
+            .specificationFile(new File("./src/test/resources/empty.json"))
+            .build();
+    runner.run();
+    assertThat(TestPlugins.SEEN.get("first")).containsExactly("Struct1", "Struct2").inOrder();
+    assertThat(TestPlugins.SEEN.get("second")).containsExactly("Struct1", "Struct2").inOrder();
+    assertThat(runner.getContext().getSpecification().structures().get(0).getName())
+        .isEqualTo("Struct1");
+  }
+
+  @Test
+  public void testSinglePluginRunsInParallelOnACopy() throws IOException {
+    GenerateRunner runner =
+        GenerateRunner.builder()
+            .plugins(Collections.singletonList("first"))
+            .parallelism(2)
+            .includes(Collections.singletonList(new File("./src/test/resources/includes-pass")))
+            .specificationFile(new File("./src/test/resources/empty.json"))
+            .build();
+    Specification specification = runner.load();
+    runner.generate(specification);
+    assertThat(TestPlugins.SEEN.get("first")).containsExactly("Struct1", "Struct2").inOrder();
+    assertThat(specification.structures().get(0).getName()).isEqualTo("Struct1");
+  }
+
+  @Test
+  public void testSequentialByDefault() {
+    assertThat(GenerateRunner.builder().build().getParallelism()).isEqualTo(1);
+    assertThat(new GenerateCommand().getParallelism()).isEqualTo(1);
+  }
+
+  @Test
+  public void testParallelFailuresNameThePlugin() throws IOException {
+    GenerateRunner runner =
+        GenerateRunner.builder()
+            .plugins(Arrays.asList("first", "failing"))
+            .parallelism(2)
+            .specificationFile(new File("./src/test/resources/empty.json"))
+            .build();
+    try {
+      runner.run();
+      fail("Expected the failing plugin to fail");
+    } catch (GeneralException e) {
+      assertThat(e).hasMessageThat().isEqualTo("Plugin failing failed: failed on purpose");
+      assertThat(e).hasCauseThat().isInstanceOf(IllegalStateException.class);
+    }
+  }
+
+  @Test
+  public void testPartitionedPluginUnitsRunBeforeFinish() throws IOException {
+    TestPlugins.Partitioned.GENERATED.clear();
+    TestPlugins.Partitioned.FINISHED.clear();
+    GenerateRunner.builder()
+        .plugins(Collections.singletonList("partitioned"))
+        .parallelism(4)
+        .includes(Collections.singletonList(new File("./src/test/resources/includes-pass")))
+        .specificationFile(new File("./src/test/resources/empty.json"))
+        .build()
+        .run();
+    assertThat(TestPlugins.Partitioned.FINISHED).containsExactly("Struct1", "Struct2");
+  }
+
+  @Test
+  public void testPartitionedFailuresNameTheUnit() throws IOException {
+    GenerateRunner runner =
+        GenerateRunner.builder()
+            .plugins(Collections.singletonList("broken"))
+            .parallelism(4)
+            .includes(Collections.singletonList(new File("./src/test/resources/includes-pass")))
+            .specificationFile(new File("./src/test/resources/empty.json"))
+            .build();
+    try {
+      runner.run();
+      fail("Expected a unit to fail");
+    } catch (GeneralException e) {
+      assertThat(e)
+          .hasMessageThat()
+          .isEqualTo("Plugin broken failed: broken unit Struct2 failed: broken Struct2");
+    }
+  }
+
+  @Test
+  public void testOnlyAffectedUnitsRegenerate() throws IOException {
+    TestPlugins.Partitioned.GENERATED.clear();
+    GenerateRunner runner =
+        GenerateRunner.builder()
+            .plugins(Collections.singletonList("partitioned"))
+            .parallelism(1)
+            .includes(Collections.singletonList(new File("./src/test/resources/includes-pass")))
+            .specificationFile(new File("./src/test/resources/empty.json"))
+            .build();
+    runner.generate(runner.load(), Collections.singleton("int_type"));
+    assertThat(TestPlugins.Partitioned.GENERATED).containsExactly("Struct1");
+  }
 }
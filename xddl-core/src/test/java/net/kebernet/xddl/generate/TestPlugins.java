@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.generate;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import net.kebernet.xddl.model.BaseType;
+import net.kebernet.xddl.model.Structure;
+import net.kebernet.xddl.plugins.Context;
+import net.kebernet.xddl.plugins.PartitionedPlugin;
+import net.kebernet.xddl.plugins.Plugin;
+import net.kebernet.xddl.plugins.WorkUnit;
+
+/** Plugins for the runner tests, registered in the test resources. */
+public class TestPlugins {
+  /** The structure names each renaming plugin saw, by plugin name. */
+  static final Map<String, List<String>> SEEN = new ConcurrentHashMap<>();
+
+  /** Records the structure names, then renames every structure, as some real plugins do. */
+  public abstract static class Renaming implements Plugin {
+    @Override
+    public String generateArtifacts(Context context, File outputDirectory) {
+      List<Structure> structures = context.getSpecification().structures();
+      SEEN.put(
+          getName(), structures.stream().map(BaseType::getName).collect(Collectors.toList()));
+      structures.forEach(s -> s.setName(getName() + "_" + s.getName()));
+      return null;
+    }
+  }
+
+  public static class First extends Renaming {
+    @Override
+    public String getName() {
+      return "first";
+    }
+  }
+
+  public static class Second extends Renaming {
+    @Override
+    public String getName() {
+      return "second";
+    }
+  }
+
+  public static class Failing implements Plugin {
+    @Override
+    public String getName() {
+      return "failing";
+    }
+
+    @Override
+    public String generateArtifacts(Context context, File outputDirectory) {
+      throw new IllegalStateException("failed on purpose");
+    }
+  }
+
+  /** Generates a unit per structure, recording the units that finished before {@link #finish}. */
+  public static class Partitioned implements PartitionedPlugin {
+    static final List<String> GENERATED = new CopyOnWriteArrayList<>();
+    static final List<String> FINISHED = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String getName() {
+      return "partitioned";
+    }
+
+    @Override
+    public List<WorkUnit> workUnits(Context context, File outputDirectory) {
+      return context.getSpecification().structures().stream()
+          .map(s -> new WorkUnit(s.getName(), () -> generate(s)))
+          .collect(Collectors.toList());
+    }
+
+    void generate(Structure structure) {
+      GENERATED.add(structure.getName());
+    }
+
+    @Override
+    public String finish(Context context, File outputDirectory) {
+      FINISHED.addAll(GENERATED);
+      return null;
+    }
+  }
+
+  public static class BrokenPartitioned extends Partitioned {
+    @Override
+    public String getName() {
+      return "broken";
+    }
+
+    @Override
+    void generate(Structure structure) {
+      if (structure.getName().equals("Struct2")) {
+        throw new IllegalStateException("broken " + structure.getName());
+      }
+    }
+  }
+}
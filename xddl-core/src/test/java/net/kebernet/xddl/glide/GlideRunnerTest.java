@@ -17,11 +17,23 @@ package net.kebernet.xddl.glide;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import net.kebernet.xddl.Loader;
 import net.kebernet.xddl.model.Specification;
+import net.kebernet.xddl.unify.UnifyCommand;
+import net.kebernet.xddl.unify.UnifyRunner;
 import org.junit.Test;
 
 public class GlideRunnerTest {
@@ -44,6 +56,7 @@ public class GlideRunnerTest {
     Specification specification =
         Loader.builder().main(new File("build/test/glide/1_0_2.xddl.json")).build().read();
     assertThat(specification.types()).isEmpty();
+    assertThat(specification.ext()).doesNotContainKey("glide");
 
     specification =
         Loader.builder().main(new File("build/test/glide/1_0_1.xddl.json")).build().read();
@@ -51,5 +64,123 @@ public class GlideRunnerTest {
     specification =
         Loader.builder().main(new File("build/test/glide/baseline.xddl.json")).build().read();
     assertThat(specification.types()).isNotEmpty();
+    assertThat(specification.ext()).doesNotContainKey("glide");
+  }
+
+  @Test
+  public void testRecordPrevious() throws IOException {
+    File output = new File("build/test/glide-previous");
+    output.mkdirs();
+    GlideRunner.builder()
+        .command(
+            GlideCommand.builder()
+                .inputFile(new File("src/test/resources/glide/Specification.xddl.json"))
+                .includes(Collections.singletonList(new File("src/test/resources/glide/includes")))
+                .patches(new File("src/test/resources/glide/glide"))
+                .outputDirectory(output)
+                .recordPrevious(true)
+                .build())
+        .build()
+        .run();
+    Specification specification =
+        Loader.builder().main(new File(output, "1_0_2.xddl.json")).build().read();
+    assertThat(specification.ext().get("glide").get("previous").asText())
+        .isEqualTo("1_0_1.xddl.json");
+    specification = Loader.builder().main(new File(output, "baseline.xddl.json")).build().read();
+    assertThat(specification.ext()).doesNotContainKey("glide");
+  }
+
+  @Test
+  public void testVersionsMatchUnifyingFromFiles() throws IOException {
+    File output = new File("build/test/glide-in-memory");
+    output.mkdirs();
+    File patches = new File("src/test/resources/glide/glide");
+    GlideRunner.builder()
+        .command(
+            GlideCommand.builder()
+                .inputFile(new File("src/test/resources/glide/Specification.xddl.json"))
+                .includes(Collections.singletonList(new File("src/test/resources/glide/includes")))
+                .patches(patches)
+                .outputDirectory(output)
+                .build())
+        .build()
+        .run();
+
+    String previous = "baseline";
+    for (String version : Arrays.asList("1.0.1", "1.0.2", "1.0.3")) {
+      String name = version.replaceAll("\\.", "_");
+      File expected = new File(output, name + ".expected.json");
+      UnifyRunner.builder()
+          .command(
+              UnifyCommand.builder()
+                  .newVersion(version)
+                  .scrubPatch(true)
+                  .inputFile(new File(output, previous + ".xddl.json"))
+                  .patches(Collections.singletonList(new File(patches, version)))
+                  .outputFile(expected)
+                  .evaluateOgnl(false)
+                  .build())
+          .build()
+          .run();
+      assertThat(Files.readAllBytes(new File(output, name + ".xddl.json").toPath()))
+          .isEqualTo(Files.readAllBytes(expected.toPath()));
+      previous = name;
+    }
+  }
+
+  @Test
+  public void testUnchangedVersionsAreReused() throws IOException {
+    File work = new File("build/test/glide-incremental");
+    if (work.exists()) {
+      MoreFiles.deleteRecursively(work.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+    File source = new File(work, "src");
+    File output = new File(work, "out");
+    output.mkdirs();
+    Path resources = new File("src/test/resources/glide").toPath();
+    try (Stream<Path> files = Files.walk(resources)) {
+      for (Path file : files.collect(Collectors.toList())) {
+        Path target = source.toPath().resolve(resources.relativize(file).toString());
+        if (Files.isDirectory(file)) {
+          Files.createDirectories(target);
+        } else {
+          Files.copy(file, target);
+        }
+      }
+    }
+    GlideRunner runner =
+        GlideRunner.builder()
+            .command(
+                GlideCommand.builder()
+                    .inputFile(new File(source, "Specification.xddl.json"))
+                    .includes(Collections.singletonList(new File(source, "includes")))
+                    .patches(new File(source, "glide"))
+                    .outputDirectory(output)
+                    .build())
+            .build();
+    runner.run();
+    List<String> names = Arrays.asList("baseline", "1_0_1", "1_0_2", "1_0_3");
+    for (String name : names) {
+      assertThat(new File(output, name + GlideInputs.SUFFIX).isFile()).isTrue();
+      assertThat(new File(output, name + ".xddl.json").setLastModified(0)).isTrue();
+    }
+
+    runner.run();
+    for (String name : names) {
+      assertThat(new File(output, name + ".xddl.json").lastModified()).isEqualTo(0L);
+    }
+
+    byte[] unified = Files.readAllBytes(new File(output, "1_0_3.xddl.json").toPath());
+    Files.write(
+        new File(source, "glide/1.0.2/title.patch.json").toPath(),
+        "\n".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+    runner.run();
+    assertThat(new File(output, "baseline.xddl.json").lastModified()).isEqualTo(0L);
+    assertThat(new File(output, "1_0_1.xddl.json").lastModified()).isEqualTo(0L);
+    assertThat(new File(output, "1_0_2.xddl.json").lastModified()).isNotEqualTo(0L);
+    assertThat(new File(output, "1_0_3.xddl.json").lastModified()).isNotEqualTo(0L);
+    assertThat(Files.readAllBytes(new File(output, "1_0_3.xddl.json").toPath()))
+        .isEqualTo(unified);
   }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.model;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import net.kebernet.xddl.Loader;
+import net.kebernet.xddl.plugins.Context;
+import org.junit.Test;
+
+public class FreezerTest {
+
+  private static Specification read() {
+    return Loader.builder().main(new File("src/test/resources/sample.json")).build().read();
+  }
+
+  @Test
+  public void testFrozenSpecificationsShareTrees() {
+    Freezer freezer = new Freezer();
+    Specification first = freezer.freeze(read());
+    Specification second = freezer.freeze(read());
+
+    assertThat(second.types().get(1).getName()).isSameInstanceAs(first.types().get(1).getName());
+    assertThat(second.types().get(1).ext().get("sql"))
+        .isSameInstanceAs(first.types().get(1).ext().get("sql"));
+
+    Structure currency = first.structures().get(0);
+    BaseType formatted = currency.getProperties().get(1);
+    BaseType code = currency.getProperties().get(2);
+    assertThat(formatted.ext().get("elasticsearch"))
+        .isSameInstanceAs(first.types().get(1).ext().get("elasticsearch"));
+    assertThat(code.ext().get("elasticsearch"))
+        .isSameInstanceAs(formatted.ext().get("elasticsearch"));
+  }
+
+  @Test
+  public void testFrozenTreesKeepTheirFieldOrder() throws IOException {
+    Type first = new Type();
+    first.setName("first");
+    first.setCore(CoreType.STRING);
+    first.ext().put("sql", Loader.mapper().readTree("{\"a\": 1, \"b\": 2}"));
+    Type second = new Type();
+    second.setName("second");
+    second.setCore(CoreType.STRING);
+    second.ext().put("sql", Loader.mapper().readTree("{\"b\": 2, \"a\": 1}"));
+    Specification specification = new Specification();
+    specification.types().add(first);
+    specification.types().add(second);
+
+    Specification frozen = specification.freeze();
+    assertThat(frozen.types().get(0).ext().get("sql").toString()).isEqualTo("{\"a\":1,\"b\":2}");
+    assertThat(frozen.types().get(1).ext().get("sql").toString()).isEqualTo("{\"b\":2,\"a\":1}");
+  }
+
+  @Test
+  public void testFrozenSpecificationIsReadOnly() {
+    Specification original = read();
+    Specification frozen = original.freeze();
+    try {
+      frozen.structures().add(new Structure());
+      fail("Expected the structures to be immutable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      frozen.types().get(0).ext().remove("sql");
+      fail("Expected the ext to be immutable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    assertThat(original.structures().get(0).getProperties().get(1).ext())
+        .doesNotContainKey("elasticsearch");
+  }
+
+  @Test
+  public void testFrozenReferencesResolve() {
+    Context context = new Context(Loader.mapper(), read().freeze());
+    Reference formatted =
+        (Reference) context.getSpecification().structures().get(0).getProperties().get(1);
+    BaseType resolved = context.resolve(formatted);
+    assertThat(resolved).isInstanceOf(Type.class);
+    assertThat(resolved.getName()).isEqualTo("formatted");
+    assertThat(resolved.getDescription()).isEqualTo("The value formatted to the correct locale.");
+    assertThat(resolved.ext()).containsKey("elasticsearch");
+    assertThat(context.resolve(formatted)).isSameInstanceAs(resolved);
+  }
+}
@@ -21,10 +21,15 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.io.CharStreams;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 import net.kebernet.xddl.Loader;
+import net.kebernet.xddl.model.List;
 import net.kebernet.xddl.model.Specification;
+import net.kebernet.xddl.model.Structure;
 import net.kebernet.xddl.model.StructureTest;
+import net.kebernet.xddl.model.Type;
 import org.junit.Test;
 
 public class OgnlTemplaterTest {
@@ -48,7 +53,51 @@ public class OgnlTemplaterTest {
         mapper.readValue(
             StructureTest.class.getResourceAsStream("/template.json"), Specification.class);
     OgnlTemplater templater = new OgnlTemplater(spec, null);
-    assertThat(templater.fillTemplate("xxx")).isEqualTo("xxx");
+    String template = "xxx";
+    assertThat(templater.fillTemplate(template)).isSameInstanceAs(template);
+  }
+
+  @Test
+  public void testTextBetweenExpressions() throws IOException {
+    ObjectMapper mapper = Loader.mapper();
+    Specification spec =
+        mapper.readValue(
+            StructureTest.class.getResourceAsStream("/template.json"), Specification.class);
+    OgnlTemplater templater = new OgnlTemplater(spec, null);
+    assertThat(
+            templater.fillTemplate(
+                "Title: ${specification.title}, version: ${specification.version}!"))
+        .isEqualTo("Title: Foo, version: 1.0!");
+    assertThat(templater.fillTemplate("\\${specification.title} ${\"{\" + \"\\}\"}"))
+        .isEqualTo("${specification.title} {}");
+    assertThat(templater.fillTemplate("${specification.title")).isEqualTo("${specification.title");
+  }
+
+  @Test
+  public void testTemplatesAreCompiledOnce() {
+    String source = "${\"v\" + 1}.${specification.version}";
+    Template template = Template.compile(source);
+    assertThat(Template.compile(new String(source))).isSameInstanceAs(template);
+    assertThat(template.isConstant()).isFalse();
+
+    Template constant = Template.compile("${\"v\" + 1}.${2 * 3}");
+    assertThat(constant.isConstant()).isTrue();
+    assertThat(constant.fill(null)).isEqualTo("v1.6");
+  }
+
+  @Test
+  public void testTemplatesInBeans() {
+    Type contains = Type.builder().name("${prefix}Item").build();
+    List list = List.builder().name("${prefix}Items").contains(contains).build();
+    Structure structure =
+        Structure.builder()
+            .name("${prefix}Struct")
+            .properties(Arrays.asList(list, contains))
+            .build();
+    new OgnlTemplater((Object) structure, Collections.singletonMap("prefix", "Foo")).run();
+    assertThat(structure.getName()).isEqualTo("FooStruct");
+    assertThat(list.getName()).isEqualTo("FooItems");
+    assertThat(contains.getName()).isEqualTo("FooItem");
   }
 
   @SuppressWarnings("unchecked")
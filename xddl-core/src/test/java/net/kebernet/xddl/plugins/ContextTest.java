@@ -15,12 +15,21 @@
  */
 package net.kebernet.xddl.plugins;
 
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import net.kebernet.xddl.Loader;
+import net.kebernet.xddl.model.CoreType;
+import net.kebernet.xddl.model.Reference;
 import net.kebernet.xddl.model.Specification;
 import net.kebernet.xddl.model.StructureTest;
+import net.kebernet.xddl.model.Type;
 import org.junit.Test;
 
 public class ContextTest {
@@ -34,6 +43,62 @@ public class ContextTest {
     Context context = new Context(mapper, spec);
   }
 
+  @Test
+  public void testResolveReferenceIsMemoized() {
+    Specification spec =
+        Loader.builder()
+            .main(new File("src/test/resources/empty.json"))
+            .includes(Collections.singletonList(new File("src/test/resources/includes-pass")))
+            .build()
+            .read();
+    Context context = new Context(Loader.mapper(), spec);
+    Reference bar = (Reference) spec.structures().get(0).getProperties().get(1);
+
+    assertThat(context.pointsToType(bar)).isTrue();
+    assertThat(context.pointsToStructure(bar)).isFalse();
+    assertThat(context.getResolutionMisses()).isEqualTo(0);
+
+    Type first = (Type) context.resolve(bar);
+    assertThat(first.getName()).isEqualTo("bar");
+    assertThat(first.getCore()).isEqualTo(CoreType.INTEGER);
+    assertThat(context.resolve(bar)).isSameInstanceAs(first);
+    assertThat(context.getResolutionHits()).isEqualTo(1);
+    assertThat(context.getResolutionMisses()).isEqualTo(1);
+
+    bar.setName("renamed");
+    assertThat(context.resolve(bar).getName()).isEqualTo("renamed");
+    assertThat(context.getResolutionMisses()).isEqualTo(2);
+  }
+
+  @Test
+  public void testResolvedReferencesAreReadOnly() {
+    Specification spec =
+        Loader.builder()
+            .main(new File("src/test/resources/empty.json"))
+            .includes(Collections.singletonList(new File("src/test/resources/includes-pass")))
+            .build()
+            .read();
+    Context context = new Context(Loader.mapper(), spec);
+    Reference bar = (Reference) spec.structures().get(0).getProperties().get(1);
+
+    Type shared = (Type) context.resolve(bar);
+    Type copy = context.<Type>resolveReferenceCopy(bar).get();
+    assertThat(copy).isNotSameInstanceAs(shared);
+    copy.setName("bar_member");
+    copy.ext().put("copied", Loader.mapper().createObjectNode());
+    assertThat(context.resolve(bar)).isSameInstanceAs(shared);
+    assertThat(shared.getName()).isEqualTo("bar");
+    assertThat(bar.ext()).doesNotContainKey("copied");
+
+    shared.setRequired(true);
+    try {
+      context.resolve(bar);
+      fail("A changed resolution was reused");
+    } catch (IllegalStateException expected) {
+      assertThat(expected).hasMessageThat().contains("resolveReferenceCopy");
+    }
+  }
+
   @Test
   public void regexTest() {
     String val = "Foo ${bar} \\${baz} ${quux\\} whatever}";
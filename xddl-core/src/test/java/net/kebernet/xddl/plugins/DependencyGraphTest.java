@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.plugins;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import net.kebernet.xddl.Loader;
+import org.junit.Test;
+
+public class DependencyGraphTest {
+
+  private final DependencyGraph graph =
+      new Context(
+              Loader.mapper(),
+              Loader.builder()
+                  .main(new File("src/test/resources/dependencies/graph.xddl.json"))
+                  .build()
+                  .read())
+          .getDependencies();
+
+  @Test
+  public void testEdges() {
+    assertThat(graph.dependenciesOf("A")).containsExactly("B", "t").inOrder();
+    assertThat(graph.dependenciesOf("B")).containsExactly("C");
+    assertThat(graph.dependenciesOf("t")).isEmpty();
+    assertThat(graph.dependentsOf("C")).containsExactly("B", "C").inOrder();
+    assertThat(graph.dependentsOf("t")).containsExactly("A");
+  }
+
+  @Test
+  public void testImpact() {
+    assertThat(graph.impactOf(Collections.singleton("C"))).containsExactly("A", "B", "C").inOrder();
+    assertThat(graph.impactOf(Arrays.asList("t", "unknown"))).containsExactly("t", "A").inOrder();
+    assertThat(graph.impactOf(Collections.singleton("E"))).containsExactly("D", "E").inOrder();
+  }
+
+  @Test
+  public void testTopologicalOrder() {
+    assertThat(graph.topologicalOrder())
+        .containsExactly("t", "C", "B", "A", "D", "E")
+        .inOrder();
+  }
+
+  @Test
+  public void testCycles() {
+    assertThat(graph.cycles())
+        .containsExactly(Collections.singletonList("C"), Arrays.asList("D", "E"))
+        .inOrder();
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.watch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import net.kebernet.xddl.Loader;
+import net.kebernet.xddl.model.Specification;
+import net.kebernet.xddl.model.Type;
+import org.junit.Test;
+
+public class WatchRunnerTest {
+
+  @Test
+  public void testChanges() {
+    assertThat(changes(read(), read())).isEmpty();
+
+    Specification described = read();
+    described.structures().get(0).getProperties().get(0).setDescription("changed");
+    assertThat(changes(read(), described)).containsExactly("Struct1");
+
+    Specification added = read();
+    Type type = new Type();
+    type.setName("new_type");
+    added.types().add(type);
+    added.types().remove(0);
+    assertThat(changes(read(), added)).containsExactly("int_type", "new_type");
+
+    Specification versioned = read();
+    versioned.setVersion("2.0");
+    assertThat(changes(read(), versioned)).containsExactly(WatchRunner.SPECIFICATION);
+  }
+
+  @Test
+  public void testSnapshotsAreNotChangedByGenerating() {
+    Specification generated = read();
+    WatchRunner.Snapshot snapshot = new WatchRunner.Snapshot(generated);
+    // Plugins rename structures and merge ext while they generate.
+    generated.structures().get(0).setName("Struct1_member");
+    generated.structures().get(0).ext().put("java", Loader.mapper().createObjectNode());
+    assertThat(WatchRunner.changes(snapshot, new WatchRunner.Snapshot(read()))).isEmpty();
+  }
+
+  private static Set<String> changes(Specification previous, Specification next) {
+    return WatchRunner.changes(new WatchRunner.Snapshot(previous), new WatchRunner.Snapshot(next));
+  }
+
+  private static Specification read() {
+    return Loader.builder()
+        .main(new File("src/test/resources/empty.json"))
+        .includes(Collections.singletonList(new File("src/test/resources/includes-pass")))
+        .build()
+        .read();
+  }
+}
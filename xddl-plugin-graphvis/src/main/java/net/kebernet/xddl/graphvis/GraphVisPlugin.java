@@ -97,10 +97,12 @@ public class GraphVisPlugin implements Plugin {
                 p ->
                     p instanceof Reference
                         ? context
-                            .resolveReference((Reference) p)
+                            .resolveReferenceCopy((Reference) p)
                             .map(
                                 r -> {
                                   r.setName(((Reference) p).getRef());
+                                  // The copy took the arrowhead, so the reference doesn't keep it.
+                                  p.ext().remove("_gv_tmp");
                                   return r;
                                 })
                             .orElse(null)
@@ -77,11 +77,9 @@ public class HivePlugin implements Plugin {
     if (spec.getEntryRef() == null) {
       throw new IllegalArgumentException("EntryRef cannot be null");
     }
-    JsonNode node =
-        ofNullable(spec.ext().get("hive")).orElse(context.getMapper().createObjectNode());
+    JsonNode node = options(context);
 
-    String tableName =
-        node.has("table-name") ? node.get("table-name").asText() : context.createBaseFilename();
+    String tableName = tableName(context);
     String partitionedBy =
         node.has("partitioned-by")
             ? "PARTITIONED BY (" + node.get("partitioned-by").asText() + ") "
@@ -115,7 +113,34 @@ public class HivePlugin implements Plugin {
     return outputFile.getName();
   }
 
-  private Field toField(Context context, BaseType property) {
+  /**
+   * @param context the generation context
+   * @return the specification's hive options, or an empty object.
+   */
+  public static JsonNode options(Context context) {
+    return ofNullable(context.getSpecification().ext().get("hive"))
+        .orElse(context.getMapper().createObjectNode());
+  }
+
+  /**
+   * @param context the generation context
+   * @return the name of the table generated for the specification.
+   */
+  public static String tableName(Context context) {
+    JsonNode node = options(context);
+    return node.has("table-name") ? node.get("table-name").asText() : context.createBaseFilename();
+  }
+
+  /**
+   * @param context the generation context
+   * @param property a property of a structure
+   * @return the hive column type generated for the property.
+   */
+  public static String columnType(Context context, BaseType property) {
+    return toField(context, property).type;
+  }
+
+  private static Field toField(Context context, BaseType property) {
     String name = property.getName();
     BaseType resolved = property;
     boolean isList = false;
@@ -171,7 +196,7 @@ public class HivePlugin implements Plugin {
     }
   }
 
-  private String buildNestedStructure(Context context, Structure resolved) {
+  private static String buildNestedStructure(Context context, Structure resolved) {
     return "STRUCT<"
         + Joiner.on(", ")
             .skipNulls()
@@ -18,36 +18,42 @@ package net.kebernet.xddl.java;
 import static net.kebernet.xddl.model.Utils.isNullOrEmpty;
 
 import java.io.File;
-import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import net.kebernet.xddl.plugins.Context;
-import net.kebernet.xddl.plugins.Plugin;
+import net.kebernet.xddl.plugins.PartitionedPlugin;
+import net.kebernet.xddl.plugins.WorkUnit;
 
-public class JavaPlugin implements Plugin {
+public class JavaPlugin implements PartitionedPlugin {
   @Override
   public String getName() {
     return "java";
   }
 
+  /** One unit per enum and per structure, each writing its own class. */
   @Override
-  public String generateArtifacts(Context context, File outputDirectory) {
-    Stream<EnumClass> enums =
+  public List<WorkUnit> workUnits(Context context, File outputDirectory) {
+    Stream<WorkUnit> enums =
         context.getSpecification().types().stream()
             .filter(t -> !isNullOrEmpty(t.getAllowable()))
-            .map(t -> new EnumClass(context, t, t, null));
-    Stream<StructureClass> structures =
+            .map(
+                t ->
+                    new WorkUnit(
+                        t.getName(),
+                        () -> new EnumClass(context, t, t, null).write(outputDirectory)));
+    Stream<WorkUnit> structures =
         context.getSpecification().structures().stream()
-            .map(s -> new StructureClass(context, s, null));
+            .map(
+                s ->
+                    new WorkUnit(
+                        s.getName(),
+                        () -> new StructureClass(context, s, null).write(outputDirectory)));
+    return Stream.concat(enums, structures).collect(Collectors.toList());
+  }
 
-    Stream<Writable> writables = Stream.concat(enums, structures);
-    writables.forEach(
-        w -> {
-          try {
-            w.write(outputDirectory);
-          } catch (IOException e) {
-            throw new RuntimeException(e.getMessage(), e);
-          }
-        });
+  @Override
+  public String finish(Context context, File outputDirectory) {
     return outputDirectory.getAbsolutePath();
   }
 }
@@ -38,8 +38,11 @@ import com.squareup.javapoet.TypeSpec;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import javax.lang.model.element.Modifier;
@@ -64,6 +67,7 @@ public class StructureClass implements Writable {
   private TypeName comparableParameter;
   private LinkedHashSet<String> comparableProperties;
   private JavaExtension extension;
+  private final LinkedHashMap<String, FieldSpec> fields = new LinkedHashMap<>();
 
   @SuppressWarnings("WeakerAccess")
   public StructureClass(Context context, Structure structure, ClassName name) {
@@ -97,6 +101,7 @@ public class StructureClass implements Writable {
             .peek(pair -> typeBuilder.addMethod(createSetter(pair.right)))
             .peek(pair -> typeBuilder.addMethod(createBuilder(pair.right)))
             .peek(pair -> typeBuilder.addField(pair.right))
+            .peek(pair -> fields.put(pair.left.getName(), pair.right))
             .collect(Collectors.toList());
 
     generateEquals(allProperties);
@@ -249,12 +254,33 @@ public class StructureClass implements Writable {
     return typeBuilder;
   }
 
-  private String createGetterName(FieldSpec fieldSpec) {
+  /**
+   * The fields of the generated class by property name, in declaration order.
+   *
+   * @return the field specs.
+   */
+  public Map<String, FieldSpec> getFields() {
+    return Collections.unmodifiableMap(fields);
+  }
+
+  /**
+   * @param fieldSpec a field of a generated class
+   * @return the name of the getter generated for it.
+   */
+  public static String createGetterName(FieldSpec fieldSpec) {
     String prefix = fieldSpec.type == TypeName.BOOLEAN ? "is" : "get";
     String name = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, fieldSpec.name);
     return prefix + name;
   }
 
+  /**
+   * @param fieldSpec a field of a generated class
+   * @return the name of the setter generated for it.
+   */
+  public static String createSetterName(FieldSpec fieldSpec) {
+    return "set" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, fieldSpec.name);
+  }
+
   private MethodSpec createGetter(FieldSpec fieldSpec) {
 
     return MethodSpec.methodBuilder(createGetterName(fieldSpec))
@@ -267,9 +293,7 @@ public class StructureClass implements Writable {
   }
 
   private MethodSpec createSetter(FieldSpec fieldSpec) {
-    String prefix = "set";
-    String name = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, fieldSpec.name);
-    return MethodSpec.methodBuilder(prefix + name)
+    return MethodSpec.methodBuilder(createSetterName(fieldSpec))
         .addModifiers(Modifier.PUBLIC)
         .addJavadoc(fieldSpec.javadoc)
         .addJavadoc("\n@param value the value\n")
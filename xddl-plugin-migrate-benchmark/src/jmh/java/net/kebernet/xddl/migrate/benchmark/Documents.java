@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate.benchmark;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.kebernet.xddl.migrate.MigrationVisitor;
+
+/** Builds synthetic order documents matching the structures in Benchmark.xddl.json. */
+final class Documents {
+  private static final String[] STATUSES = {"open", "shipped", "closed", "cancelled", "unknown"};
+  private static final String[] TAGS = {"express shipping", "gift wrap", "fragile", "bulk order"};
+
+  private Documents() {}
+
+  /**
+   * Creates an order document.
+   *
+   * @param seed varies the field values
+   * @param lineCount the number of entries in the "lines" and "tags" arrays
+   * @return a new document
+   */
+  static ObjectNode order(int seed, int lineCount) {
+    ObjectNode order = MigrationVisitor.mapper.createObjectNode();
+    order.put("id", "order-" + seed);
+    order.put("customerName", "Cooper, Robert " + seed);
+    order.put("code", "abc-def-" + seed);
+    order.put("status", STATUSES[seed % STATUSES.length]);
+    order.put("total", 10.5 + seed);
+    ObjectNode address = order.putObject("address");
+    address.put("street", "Main Street " + seed);
+    address.put("city", "Atlanta");
+    ArrayNode lines = order.putArray("lines");
+    ArrayNode tags = order.putArray("tags");
+    for (int i = 0; i < lineCount; i++) {
+      ObjectNode line = lines.addObject();
+      line.put("sku", "sku-" + seed + "-" + i);
+      line.put("quantity", i % 7 + 1);
+      tags.add(TAGS[i % TAGS.length]);
+    }
+    return order;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate.benchmark;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.concurrent.TimeUnit;
+import net.kebernet.xddl.migrate.MigrationVisitor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the visitors the migrate plugin generates from Benchmark.xddl.json. Each operation
+ * migrates one document, so the scores are ns/doc, and with the gc profiler gc.alloc.rate.norm is
+ * bytes allocated per doc. Visitors migrate in place, so every operation copies the document first;
+ * {@link DocumentCopyBenchmark} measures that copy so it can be subtracted. The {@code layout}
+ * parameter compares the default class-per-structure visitors with flattened ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MigrationVisitorBenchmark {
+  private static final String PACKAGE = "net.kebernet.xddl.benchmark.v1_0.migration.";
+  private static final String FLAT_PACKAGE = "net.kebernet.xddl.benchmark.flat.v1_0.migration.";
+  static final int DOCUMENT_VARIANTS = 64;
+
+  @Param({
+    "JsonPathOrder",
+    "RegexOrder",
+    "MapOrder",
+    "TemplateOrder",
+    "MixinOrder",
+    "NestedOrder",
+    "ListOrder"
+  })
+  private String visitor;
+
+  /** Whether the visitors are generated one class per structure, or flattened into one class. */
+  @Param({"layered", "flat"})
+  private String layout;
+
+  /** The number of entries in each document's arrays. */
+  @Param({"10", "1000"})
+  private int lineCount;
+
+  private MigrationVisitor migrationVisitor;
+  private ObjectNode[] documents;
+  private int next;
+
+  @Setup
+  public void setUp() throws ReflectiveOperationException {
+    migrationVisitor =
+        (MigrationVisitor)
+            Class.forName(("flat".equals(layout) ? FLAT_PACKAGE : PACKAGE) + visitor)
+                .getDeclaredConstructor()
+                .newInstance();
+    documents = new ObjectNode[DOCUMENT_VARIANTS];
+    for (int i = 0; i < documents.length; i++) {
+      documents[i] = Documents.order(i, lineCount);
+    }
+  }
+
+  @Benchmark
+  public ObjectNode migrate() {
+    next = (next + 1) % documents.length;
+    ObjectNode document = documents[next].deepCopy();
+    migrationVisitor.apply(document, document);
+    return document;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate.format;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the single pass {@link CaseConverter} with the tokenizing implementation for every
+ * from/to pair of {@link CaseFormat}s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaseFormatBenchmark {
+  private static final String SAMPLE = "the quick brown fox jumps over the lazy dog";
+
+  @Param private CaseFormat from;
+  @Param private CaseFormat to;
+
+  private String input;
+  private Function<String, String> singlePass;
+  private Function<String, String> tokenizing;
+
+  @Setup
+  public void setUp() {
+    input = CaseFormat.LOWER_WORDS.tokenizingTo(from).apply(SAMPLE);
+    singlePass = from.to(to);
+    tokenizing = from.tokenizingTo(to);
+  }
+
+  @Benchmark
+  public String singlePass() {
+    return singlePass.apply(input);
+  }
+
+  @Benchmark
+  public String tokenizing() {
+    return tokenizing.apply(input);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Migrates a range of array elements with a child visitor, splitting the range across the fork-join
+ * pool when the array is large. Only visitors that do not touch the document root are run in
+ * parallel, since elements of the same array would otherwise observe each other mid-migration.
+ */
+public class ArrayMigrationTask extends RecursiveAction {
+  /** System property that sets the element count above which arrays are migrated in parallel. */
+  public static final String THRESHOLD_PROPERTY = "xddl.migrate.parallelArrayThreshold";
+
+  private static final int LEAF_SIZE = 1024;
+  private static volatile int parallelThreshold = Integer.getInteger(THRESHOLD_PROPERTY, 10_000);
+
+  private final ObjectNode root;
+  private final ArrayNode list;
+  private final MigrationVisitor childVisitor;
+  private final int start;
+  private final int end;
+
+  private ArrayMigrationTask(
+      ObjectNode root, ArrayNode list, MigrationVisitor childVisitor, int start, int end) {
+    this.root = root;
+    this.list = list;
+    this.childVisitor = childVisitor;
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * Sets the element count above which arrays are migrated in parallel.
+   *
+   * @param threshold the number of elements, or Integer.MAX_VALUE to always migrate serially.
+   */
+  public static void setParallelThreshold(int threshold) {
+    parallelThreshold = threshold;
+  }
+
+  public static int getParallelThreshold() {
+    return parallelThreshold;
+  }
+
+  static void migrate(ObjectNode root, ArrayNode list, MigrationVisitor childVisitor) {
+    if (list.size() > parallelThreshold && !childVisitor.touchesRoot()) {
+      new ArrayMigrationTask(root, list, childVisitor, 0, list.size()).invoke();
+    } else {
+      migrateRange(root, list, childVisitor, 0, list.size());
+    }
+  }
+
+  /**
+   * Migrates an array on the fork-join pool regardless of its size. This is for generated code that
+   * has already checked the threshold and knows the visitor does not touch the root.
+   *
+   * @param root the root object of the document
+   * @param list the array to migrate
+   * @param childVisitor the visitor for the element type
+   */
+  public static void migrateInParallel(
+      ObjectNode root, ArrayNode list, MigrationVisitor childVisitor) {
+    new ArrayMigrationTask(root, list, childVisitor, 0, list.size()).invoke();
+  }
+
+  @Override
+  protected void compute() {
+    if (end - start <= LEAF_SIZE) {
+      migrateRange(root, list, childVisitor, start, end);
+      return;
+    }
+    int middle = (start + end) >>> 1;
+    invokeAll(
+        new ArrayMigrationTask(root, list, childVisitor, start, middle),
+        new ArrayMigrationTask(root, list, childVisitor, middle, end));
+  }
+
+  private static void migrateRange(
+      ObjectNode root, ArrayNode list, MigrationVisitor childVisitor, int start, int end) {
+    // Scalar elements are replaced by their wrapper, so a new wrapper is needed per element.
+    for (int i = start; i < end; i++) {
+      JsonNode indexedValue = list.get(i);
+      if (indexedValue instanceof ObjectNode) {
+        childVisitor.apply(root, indexedValue);
+      } else {
+        ObjectNode current = list.objectNode();
+        current.set("_", indexedValue);
+        childVisitor.apply(root, current);
+        current.remove("_");
+        list.set(i, current);
+      }
+    }
+  }
+}
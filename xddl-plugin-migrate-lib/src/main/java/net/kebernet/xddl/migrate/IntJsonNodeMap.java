@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * An open-addressing map from primitive int keys to nodes, used for map stages whose keys are all
+ * integers. It is filled once when a generated visitor class is initialized and only read after
+ * that.
+ */
+public class IntJsonNodeMap {
+  private final int[] keys;
+  private final JsonNode[] values;
+  private final int mask;
+  private int size;
+
+  /**
+   * Creates a map sized for the expected number of entries.
+   *
+   * @param expectedSize the number of entries that will be put.
+   */
+  public IntJsonNodeMap(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+    keys = new int[capacity];
+    values = new JsonNode[capacity];
+    mask = capacity - 1;
+  }
+
+  /**
+   * Puts a value, replacing any value for the same key.
+   *
+   * @param key the key
+   * @param value the value, which may not be null.
+   */
+  public void put(int key, JsonNode value) {
+    if (value == null) {
+      throw new IllegalArgumentException("Null values are not supported");
+    }
+    int slot = slot(key);
+    if (values[slot] == null) {
+      if (size + 1 > keys.length / 2) {
+        throw new IllegalStateException("IntJsonNodeMap is full at " + size + " entries");
+      }
+      size++;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+  }
+
+  /**
+   * Looks up a key.
+   *
+   * @param key the key
+   * @return the value or null if the key is not present.
+   */
+  public JsonNode get(int key) {
+    return values[slot(key)];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private int slot(int key) {
+    // Folds the high bits of the product into the low ones, so tables past 2^16 slots use them all.
+    int hash = key * 0x9E3779B9;
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    while (values[slot] != null && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+}
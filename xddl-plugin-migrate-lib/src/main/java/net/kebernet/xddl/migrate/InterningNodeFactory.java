@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NumericNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A node factory that shares the nodes for short strings and integral numbers. Value nodes are
+ * immutable, so documents full of repeated status codes, country codes and mapped values can all
+ * point at one node per value instead of holding a copy each.
+ *
+ * <p>The cache is bounded: once it holds the maximum number of entries, new values are created
+ * normally and only values already cached are shared. The shared factory is configured with system
+ * properties: {@value #ENABLED_PROPERTY} (default true), {@value #MAX_ENTRIES_PROPERTY} (default
+ * 65536) and {@value #MAX_LENGTH_PROPERTY}, the longest string that is interned (default 32).
+ */
+public class InterningNodeFactory extends JsonNodeFactory {
+  public static final String ENABLED_PROPERTY = "xddl.migrate.intern";
+  public static final String MAX_ENTRIES_PROPERTY = "xddl.migrate.intern.maxEntries";
+  public static final String MAX_LENGTH_PROPERTY = "xddl.migrate.intern.maxLength";
+
+  // Rough retained sizes on a 64-bit JVM with compressed oops and compact strings.
+  private static final int TEXT_BYTES = 16 + 24 + 16;
+  private static final int NUMBER_BYTES = 24;
+
+  private static final InterningNodeFactory SHARED =
+      new InterningNodeFactory(
+          Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"))
+              ? Integer.getInteger(MAX_ENTRIES_PROPERTY, 65_536)
+              : 0,
+          Integer.getInteger(MAX_LENGTH_PROPERTY, 32));
+
+  private final int maxEntries;
+  private final int maxLength;
+  private final ConcurrentHashMap<Object, ValueNode> nodes = new ConcurrentHashMap<>();
+  private final AtomicInteger entries = new AtomicInteger();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder bytesSaved = new LongAdder();
+
+  /**
+   * Creates a factory with its own cache.
+   *
+   * @param maxEntries the number of distinct values to keep, or 0 to not intern at all
+   * @param maxLength the longest string to intern
+   */
+  public InterningNodeFactory(int maxEntries, int maxLength) {
+    this.maxEntries = maxEntries;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * The factory used by MigrationVisitor.mapper and powerglide.
+   *
+   * @return the shared factory
+   */
+  public static InterningNodeFactory shared() {
+    return SHARED;
+  }
+
+  @Override
+  public TextNode textNode(String text) {
+    if (text == null || text.length() > maxLength || maxEntries == 0) {
+      return super.textNode(text);
+    }
+    ValueNode node = nodes.get(text);
+    if (node != null) {
+      hits.increment();
+      bytesSaved.add(TEXT_BYTES + text.length());
+      return (TextNode) node;
+    }
+    return (TextNode) admit(text, super.textNode(text));
+  }
+
+  @Override
+  public NumericNode numberNode(int v) {
+    if (maxEntries == 0) {
+      return super.numberNode(v);
+    }
+    Integer key = v;
+    ValueNode node = nodes.get(key);
+    if (node != null) {
+      hits.increment();
+      bytesSaved.add(NUMBER_BYTES);
+      return (NumericNode) node;
+    }
+    return (NumericNode) admit(key, super.numberNode(v));
+  }
+
+  @Override
+  public NumericNode numberNode(long v) {
+    if (maxEntries == 0) {
+      return super.numberNode(v);
+    }
+    Long key = v;
+    ValueNode node = nodes.get(key);
+    if (node != null) {
+      hits.increment();
+      bytesSaved.add(NUMBER_BYTES);
+      return (NumericNode) node;
+    }
+    return (NumericNode) admit(key, super.numberNode(v));
+  }
+
+  private ValueNode admit(Object key, ValueNode created) {
+    misses.increment();
+    if (entries.get() >= maxEntries) {
+      return created;
+    }
+    ValueNode existing = nodes.putIfAbsent(key, created);
+    if (existing != null) {
+      return existing;
+    }
+    entries.incrementAndGet();
+    return created;
+  }
+
+  /** The number of nodes that were shared instead of created. */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /** The number of nodes that had to be created. */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public int getEntries() {
+    return entries.get();
+  }
+
+  /** An estimate of the heap that sharing saved, counting the node and string each hit replaced. */
+  public long getBytesSaved() {
+    return bytesSaved.sum();
+  }
+
+  /** Zeroes the statistics, keeping the cached nodes. */
+  public void resetStatistics() {
+    hits.reset();
+    misses.reset();
+    bytesSaved.reset();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "interned nodes: %d hits, %d misses, %d of %d entries, ~%d KiB saved",
+        getHits(), getMisses(), getEntries(), maxEntries, getBytesSaved() / 1024);
+  }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A read-only key to value index over a CSV or NDJSON side file, used by lookup stages. The first
+ * lookup builds a compact hash table file in the index directory, or reuses one built earlier from
+ * the same source, and memory-maps it. Lookups then read the mapped file directly, so the table
+ * stays off the heap. One instance is shared by every visitor and thread in the process for each
+ * source and key/value field combination.
+ *
+ * <p>The index file is a header, a table of (hash, entry offset) slots with open addressing, and
+ * the entries as UTF-8 key bytes followed by the value as UTF-8 JSON.
+ */
+public class LookupIndex {
+  /** System property for the directory index files are written to (default: java.io.tmpdir). */
+  public static final String INDEX_DIRECTORY_PROPERTY = "xddl.migrate.lookupIndexDirectory";
+
+  private static final ConcurrentHashMap<String, LookupIndex> INDEXES = new ConcurrentHashMap<>();
+  private static final int MAGIC = 0x58444c4b;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+  private static final int SLOT_SIZE = 8;
+
+  /** The supported side file formats. */
+  public enum Format {
+    /** Comma separated values with a header row naming the columns. */
+    CSV,
+    /** One JSON object per line. */
+    NDJSON
+  }
+
+  private final File source;
+  private final Format format;
+  private final String keyField;
+  private final String valueField;
+  private volatile ByteBuffer buffer;
+
+  LookupIndex(File source, Format format, String keyField, String valueField) {
+    this.source = source;
+    this.format = format;
+    this.keyField = keyField;
+    this.valueField = valueField;
+  }
+
+  /**
+   * Returns the shared index for a side file. The file is not read until the first lookup.
+   *
+   * @param file the path of the CSV or NDJSON file
+   * @param format "CSV" or "NDJSON", or null to choose by the file extension
+   * @param keyField the column or property that holds the key
+   * @param valueField the column or property that holds the value, or null for the whole row
+   * @return the index
+   */
+  public static LookupIndex open(String file, String format, String keyField, String valueField) {
+    File source = new File(file).getAbsoluteFile();
+    Format resolved =
+        format != null
+            ? Format.valueOf(format.toUpperCase())
+            : file.toLowerCase().endsWith(".csv") ? Format.CSV : Format.NDJSON;
+    String name = source.getPath() + "|" + resolved + "|" + keyField + "|" + valueField;
+    return INDEXES.computeIfAbsent(
+        name, n -> new LookupIndex(source, resolved, keyField, valueField));
+  }
+
+  /**
+   * Looks up the value for a key.
+   *
+   * @param key the key text
+   * @return the value, or null if the key is not in the side file.
+   */
+  public JsonNode lookup(String key) {
+    ByteBuffer index = buffer();
+    byte[] keyBytes = key.getBytes(UTF_8);
+    int hash = hash(keyBytes);
+    int mask = index.getInt(12) - 1;
+    for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+      int position = HEADER_SIZE + slot * SLOT_SIZE;
+      int offset = index.getInt(position + 4);
+      if (offset == 0) {
+        return null;
+      }
+      if (index.getInt(position) == hash && keyEquals(index, offset, keyBytes)) {
+        int valueOffset = offset + 4 + keyBytes.length;
+        return MigrationVisitor.readTree(
+            new String(read(index, valueOffset + 4, index.getInt(valueOffset)), UTF_8));
+      }
+    }
+  }
+
+  /**
+   * The number of keys in the index.
+   *
+   * @return the key count
+   */
+  public int size() {
+    return buffer().getInt(8);
+  }
+
+  private ByteBuffer buffer() {
+    ByteBuffer result = buffer;
+    if (result == null) {
+      synchronized (this) {
+        result = buffer;
+        if (result == null) {
+          result = load();
+          buffer = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  private ByteBuffer load() {
+    if (!source.isFile()) {
+      throw new IllegalStateException("Lookup file not found: " + source);
+    }
+    File indexFile = indexFile();
+    try {
+      if (indexFile.isFile()) {
+        MappedByteBuffer existing = map(indexFile);
+        if (isCurrent(existing)) {
+          return existing;
+        }
+      }
+      build(indexFile);
+      MappedByteBuffer built = map(indexFile);
+      if (!isCurrent(built)) {
+        throw new IllegalStateException("Lookup index " + indexFile + " failed validation");
+      }
+      return built;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to index lookup file " + source, e);
+    }
+  }
+
+  File indexFile() {
+    File directory =
+        new File(System.getProperty(INDEX_DIRECTORY_PROPERTY, System.getProperty("java.io.tmpdir")));
+    String name = source.getPath() + "|" + format + "|" + keyField + "|" + valueField;
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(name.getBytes(UTF_8));
+      return new File(
+          directory, "xddl-lookup-" + String.format("%040x", new BigInteger(1, digest)) + ".idx");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private boolean isCurrent(ByteBuffer index) {
+    return index.capacity() >= HEADER_SIZE
+        && index.getInt(0) == MAGIC
+        && index.getInt(4) == VERSION
+        && index.getLong(16) == source.length()
+        && index.getLong(24) == source.lastModified()
+        && index.capacity() >= HEADER_SIZE + (long) index.getInt(12) * SLOT_SIZE;
+  }
+
+  private static MappedByteBuffer map(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel()) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  private void build(File indexFile) throws IOException {
+    long sourceLength = source.length();
+    long sourceModified = source.lastModified();
+    LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>();
+    try (BufferedReader reader = Files.newBufferedReader(source.toPath(), UTF_8)) {
+      if (format == Format.CSV) {
+        readCsvEntries(reader, entries);
+      } else {
+        readNdjsonEntries(reader, entries);
+      }
+    }
+
+    int slotCount = Integer.highestOneBit(Math.max(4, entries.size() * 2 - 1)) << 1;
+    long size = HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+    for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+      size += 8 + entry.getKey().getBytes(UTF_8).length + entry.getValue().length;
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Lookup file " + source + " is too large to index");
+    }
+
+    File directory = indexFile.getAbsoluteFile().getParentFile();
+    directory.mkdirs();
+    File temporary = File.createTempFile("xddl-lookup-", ".tmp", directory);
+    try {
+      try (RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+          FileChannel channel = raf.getChannel()) {
+        MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        out.putInt(0, MAGIC);
+        out.putInt(4, VERSION);
+        out.putInt(8, entries.size());
+        out.putInt(12, slotCount);
+        out.putLong(16, sourceLength);
+        out.putLong(24, sourceModified);
+        int offset = HEADER_SIZE + slotCount * SLOT_SIZE;
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+          byte[] key = entry.getKey().getBytes(UTF_8);
+          int hash = hash(key);
+          int slot = mix(hash) & (slotCount - 1);
+          while (out.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4) != 0) {
+            slot = (slot + 1) & (slotCount - 1);
+          }
+          out.putInt(HEADER_SIZE + slot * SLOT_SIZE, hash);
+          out.putInt(HEADER_SIZE + slot * SLOT_SIZE + 4, offset);
+          out.position(offset);
+          out.putInt(key.length).put(key).putInt(entry.getValue().length).put(entry.getValue());
+          offset = out.position();
+        }
+        out.force();
+      }
+      Files.move(
+          temporary.toPath(),
+          indexFile.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary.toPath());
+    }
+  }
+
+  private void readCsvEntries(Reader reader, Map<String, byte[]> entries) throws IOException {
+    int[] columns = {-1, -1};
+    List<String> header = new ArrayList<>();
+    readCsv(
+        reader,
+        row -> {
+          if (header.isEmpty()) {
+            header.addAll(row);
+            columns[0] = header.indexOf(keyField);
+            columns[1] = valueField == null ? -1 : header.indexOf(valueField);
+            if (columns[0] < 0 || (valueField != null && columns[1] < 0)) {
+              throw new IllegalStateException(
+                  "Lookup file "
+                      + source
+                      + " does not have the columns "
+                      + keyField
+                      + ", "
+                      + valueField);
+            }
+            return;
+          }
+          if (row.size() <= columns[0]) {
+            return;
+          }
+          JsonNode value;
+          if (valueField != null) {
+            value =
+                MigrationVisitor.mapper
+                    .getNodeFactory()
+                    .textNode(columns[1] < row.size() ? row.get(columns[1]) : "");
+          } else {
+            ObjectNode object = MigrationVisitor.mapper.createObjectNode();
+            for (int i = 0; i < header.size() && i < row.size(); i++) {
+              object.put(header.get(i), row.get(i));
+            }
+            value = object;
+          }
+          entries.put(row.get(columns[0]), value.toString().getBytes(UTF_8));
+        });
+  }
+
+  private void readNdjsonEntries(BufferedReader reader, Map<String, byte[]> entries)
+      throws IOException {
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      JsonNode node = MigrationVisitor.mapper.readTree(line);
+      JsonNode key = node.get(keyField);
+      JsonNode value = valueField == null ? node : node.get(valueField);
+      if (key != null && !key.isNull() && value != null) {
+        entries.put(key.asText(), value.toString().getBytes(UTF_8));
+      }
+    }
+  }
+
+  /**
+   * Reads RFC 4180 style CSV: fields separated by commas, optionally in double quotes, where a
+   * doubled quote is a literal quote and quoted fields may contain commas and line breaks. Blank
+   * lines are skipped.
+   */
+  static void readCsv(Reader in, Consumer<List<String>> rows) throws IOException {
+    BufferedReader reader =
+        in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+    List<String> row = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    boolean content = false;
+    int c = reader.read();
+    if (c == '\uFEFF') {
+      c = reader.read();
+    }
+    for (; c != -1; c = reader.read()) {
+      if (quoted) {
+        if (c != '"') {
+          field.append((char) c);
+          continue;
+        }
+        reader.mark(1);
+        if (reader.read() == '"') {
+          field.append('"');
+        } else {
+          quoted = false;
+          reader.reset();
+        }
+      } else if (c == '"') {
+        quoted = true;
+        content = true;
+      } else if (c == ',') {
+        row.add(field.toString());
+        field.setLength(0);
+        content = true;
+      } else if (c == '\r' || c == '\n') {
+        if (c == '\r') {
+          reader.mark(1);
+          if (reader.read() != '\n') {
+            reader.reset();
+          }
+        }
+        if (content || field.length() > 0) {
+          row.add(field.toString());
+          rows.accept(row);
+          row = new ArrayList<>();
+        }
+        field.setLength(0);
+        content = false;
+      } else {
+        field.append((char) c);
+        content = true;
+      }
+    }
+    if (content || field.length() > 0) {
+      row.add(field.toString());
+      rows.accept(row);
+    }
+  }
+
+  private static boolean keyEquals(ByteBuffer index, int offset, byte[] key) {
+    if (index.getInt(offset) != key.length) {
+      return false;
+    }
+    for (int i = 0; i < key.length; i++) {
+      if (index.get(offset + 4 + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] read(ByteBuffer index, int offset, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = index.get(offset + i);
+    }
+    return bytes;
+  }
+
+  /** FNV-1a over the UTF-8 key bytes, so the hash is stable across JVMs. */
+  private static int hash(byte[] key) {
+    int hash = 0x811c9dc5;
+    for (byte b : key) {
+      hash ^= b & 0xff;
+      hash *= 0x01000193;
+    }
+    return hash;
+  }
+
+  private static int mix(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+}
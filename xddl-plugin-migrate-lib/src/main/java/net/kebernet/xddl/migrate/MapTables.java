@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds the lookup tables of generated map stages. The generator writes each table as a JSON array
+ * of {@code [from, to]} pairs, split into several string constants so large tables fit in the class
+ * file. Equal values are shared, so a table with many keys and few distinct values holds one node
+ * per value.
+ */
+public class MapTables {
+
+  private MapTables() {}
+
+  /**
+   * Builds a table for text keys.
+   *
+   * @param chunks the pieces of the JSON pairs array
+   * @return a map from key text to the shared value node
+   */
+  public static HashMap<String, JsonNode> textTable(String... chunks) {
+    JsonNode pairs = pairs(chunks);
+    HashMap<String, JsonNode> result = new HashMap<>(capacity(pairs.size()));
+    Map<JsonNode, JsonNode> shared = new HashMap<>();
+    pairs.forEach(p -> result.put(p.get(0).textValue(), share(shared, p.get(1))));
+    return result;
+  }
+
+  /**
+   * Builds a table for text keys and text values, used by fused string stages.
+   *
+   * @param chunks the pieces of the JSON pairs array
+   * @return a map from key text to value text
+   */
+  public static HashMap<String, String> stringTable(String... chunks) {
+    JsonNode pairs = pairs(chunks);
+    HashMap<String, String> result = new HashMap<>(capacity(pairs.size()));
+    pairs.forEach(p -> result.put(p.get(0).textValue(), p.get(1).textValue()));
+    return result;
+  }
+
+  /**
+   * Builds a table for int keys.
+   *
+   * @param chunks the pieces of the JSON pairs array
+   * @return a primitive keyed map to the shared value nodes
+   */
+  public static IntJsonNodeMap intTable(String... chunks) {
+    JsonNode pairs = pairs(chunks);
+    IntJsonNodeMap result = new IntJsonNodeMap(pairs.size());
+    Map<JsonNode, JsonNode> shared = new HashMap<>();
+    pairs.forEach(p -> result.put(p.get(0).intValue(), share(shared, p.get(1))));
+    return result;
+  }
+
+  /**
+   * Builds a table for keys of any JSON type.
+   *
+   * @param chunks the pieces of the JSON pairs array
+   * @return a map from key node to the shared value node
+   */
+  public static HashMap<JsonNode, JsonNode> nodeTable(String... chunks) {
+    JsonNode pairs = pairs(chunks);
+    HashMap<JsonNode, JsonNode> result = new HashMap<>(capacity(pairs.size()));
+    Map<JsonNode, JsonNode> shared = new HashMap<>();
+    pairs.forEach(p -> result.put(p.get(0), share(shared, p.get(1))));
+    return result;
+  }
+
+  /**
+   * Reads the values of a table for a generated switch lookup.
+   *
+   * @param chunks the pieces of a JSON array of values
+   * @return the shared value nodes in order
+   */
+  public static JsonNode[] values(String... chunks) {
+    JsonNode values = MigrationVisitor.readTree(String.join("", chunks));
+    JsonNode[] result = new JsonNode[values.size()];
+    Map<JsonNode, JsonNode> shared = new HashMap<>();
+    for (int i = 0; i < result.length; i++) {
+      result[i] = share(shared, values.get(i));
+    }
+    return result;
+  }
+
+  private static JsonNode pairs(String... chunks) {
+    return MigrationVisitor.readTree(String.join("", chunks));
+  }
+
+  private static JsonNode share(Map<JsonNode, JsonNode> shared, JsonNode value) {
+    return shared.computeIfAbsent(value, v -> v);
+  }
+
+  private static int capacity(int size) {
+    return (int) (size / 0.75f) + 1;
+  }
+}
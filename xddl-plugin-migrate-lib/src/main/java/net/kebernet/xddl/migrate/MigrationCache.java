@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * A bounded, least recently used cache of the results of a field migration marked as "pure" in its
+ * migration ext. It is keyed on the value of the field before migration. The cache is split into
+ * independently locked segments, so concurrent visitors rarely contend. Nodes are copied on the way
+ * in and out, because documents are migrated in place.
+ */
+public class MigrationCache {
+  private static final ConcurrentHashMap<String, MigrationCache> CACHES =
+      new ConcurrentHashMap<>();
+  private static final int SEGMENTS = 16;
+
+  private final String name;
+  private final int maximumSize;
+  private final Segment[] segments = new Segment[SEGMENTS];
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  MigrationCache(String name, int maximumSize) {
+    this.name = name;
+    this.maximumSize = maximumSize;
+    int segmentSize = Math.max(1, (maximumSize + SEGMENTS - 1) / SEGMENTS);
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment(segmentSize);
+    }
+  }
+
+  /**
+   * Returns the cache with the given name, creating it if needed. Generated visitors keep the
+   * result in a static field.
+   *
+   * @param name the name of the field migration
+   * @param maximumSize the number of results to keep
+   * @return the cache
+   */
+  public static MigrationCache cache(String name, int maximumSize) {
+    return CACHES.computeIfAbsent(name, n -> new MigrationCache(n, maximumSize));
+  }
+
+  public static Collection<MigrationCache> caches() {
+    return Collections.unmodifiableCollection(CACHES.values());
+  }
+
+  /**
+   * Formats the hit and miss counts of every cache that has been used.
+   *
+   * @return a table, or an empty string if no cache has been used
+   */
+  public static String table() {
+    List<MigrationCache> used =
+        CACHES.values().stream()
+            .filter(c -> c.getHits() + c.getMisses() > 0)
+            .sorted(Comparator.comparing(MigrationCache::getName))
+            .collect(Collectors.toCollection(ArrayList::new));
+    if (used.isEmpty()) {
+      return "";
+    }
+    StringBuilder sb =
+        new StringBuilder(
+            String.format("%-60s %12s %12s %8s%n", "migration", "hits", "misses", "hit %"));
+    used.forEach(
+        c ->
+            sb.append(
+                String.format(
+                    "%-60s %12d %12d %8.1f%n",
+                    c.getName(), c.getHits(), c.getMisses(), c.getHitRate() * 100)));
+    return sb.toString();
+  }
+
+  /** Empties every cache and zeroes the counts. */
+  public static void reset() {
+    CACHES.values().forEach(MigrationCache::clear);
+  }
+
+  /**
+   * Looks up the migrated value for an input value.
+   *
+   * @param input the field value before migration
+   * @return a copy of the migrated value, or null if it is not cached.
+   */
+  public JsonNode get(JsonNode input) {
+    Segment segment = segmentFor(input);
+    JsonNode result;
+    synchronized (segment) {
+      result = segment.get(input);
+    }
+    if (result == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return result.deepCopy();
+  }
+
+  /**
+   * Stores the migrated value for an input value.
+   *
+   * @param input the field value before migration, which must not be modified afterwards
+   * @param result the migrated value
+   */
+  public void put(JsonNode input, JsonNode result) {
+    if (input == null || result == null) {
+      return;
+    }
+    JsonNode copy = result.deepCopy();
+    Segment segment = segmentFor(input);
+    synchronized (segment) {
+      segment.put(input, copy);
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getMaximumSize() {
+    return maximumSize;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public double getHitRate() {
+    long hitCount = getHits();
+    long total = hitCount + getMisses();
+    return total == 0 ? 0 : (double) hitCount / total;
+  }
+
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+    hits.reset();
+    misses.reset();
+  }
+
+  private Segment segmentFor(JsonNode input) {
+    int hash = input.hashCode();
+    return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s: %d hits, %d misses, %d of %d entries",
+        name, getHits(), getMisses(), size(), maximumSize);
+  }
+
+  private static class Segment extends LinkedHashMap<JsonNode, JsonNode> {
+    private final int capacity;
+
+    Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<JsonNode, JsonNode> eldest) {
+      return size() > capacity;
+    }
+  }
+}
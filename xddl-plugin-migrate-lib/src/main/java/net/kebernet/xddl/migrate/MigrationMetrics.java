@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The registry of {@link StageTimer}s used by visitors generated with the migrate plugin's
+ * "instrument" option. Visitors generated without it never touch this class.
+ */
+public class MigrationMetrics {
+  private static final ConcurrentHashMap<String, StageTimer> TIMERS = new ConcurrentHashMap<>();
+
+  private MigrationMetrics() {}
+
+  /**
+   * Returns the timer with the given name, creating it if needed. Generated visitors keep the
+   * result in a static field.
+   *
+   * @param name the name of the field or stage
+   * @return the timer
+   */
+  public static StageTimer timer(String name) {
+    return TIMERS.computeIfAbsent(name, StageTimer::new);
+  }
+
+  public static Collection<StageTimer> timers() {
+    return Collections.unmodifiableCollection(TIMERS.values());
+  }
+
+  /**
+   * Returns the timers with the most total time.
+   *
+   * @param limit the maximum number of timers to return
+   * @return timers ordered by descending total time
+   */
+  public static List<StageTimer> slowest(int limit) {
+    return TIMERS.values().stream()
+        .filter(t -> t.getCount() > 0)
+        .sorted(Comparator.comparingLong(StageTimer::getTotalNanos).reversed())
+        .limit(limit)
+        .collect(Collectors.toCollection(ArrayList::new));
+  }
+
+  /**
+   * Formats the slowest timers as a table.
+   *
+   * @param limit the maximum number of rows
+   * @return a table, or an empty string if nothing has been recorded
+   */
+  public static String table(int limit) {
+    List<StageTimer> slowest = slowest(limit);
+    if (slowest.isEmpty()) {
+      return "";
+    }
+    StringBuilder sb =
+        new StringBuilder(
+            String.format("%-60s %12s %12s %12s%n", "migration", "calls", "total ms", "mean ns"));
+    slowest.forEach(
+        t ->
+            sb.append(
+                String.format(
+                    "%-60s %12d %12d %12.0f%n",
+                    t.getName(),
+                    t.getCount(),
+                    TimeUnit.NANOSECONDS.toMillis(t.getTotalNanos()),
+                    t.getMeanNanos())));
+    return sb.toString();
+  }
+
+  /** Zeroes every timer. */
+  public static void reset() {
+    TIMERS.values().forEach(StageTimer::reset);
+  }
+}
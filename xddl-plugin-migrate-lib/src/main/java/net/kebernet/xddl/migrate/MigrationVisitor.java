@@ -34,7 +34,7 @@ import net.kebernet.xddl.migrate.format.CaseFormat;
 
 /** This is a visitor interface that is called to handle a migration from one type to another. */
 public interface MigrationVisitor {
-  ObjectMapper mapper = new ObjectMapper();
+  ObjectMapper mapper = new ObjectMapper().setNodeFactory(InterningNodeFactory.shared());
   Configuration JACKSON_JSON_NODE_CONFIGURATION =
       Configuration.builder()
           .mappingProvider(new JacksonMappingProvider())
@@ -62,6 +62,11 @@ public interface MigrationVisitor {
     return mapper.valueToTree(from.to(to).apply(value.asText()));
   }
 
+  @SuppressWarnings("unused")
+  static String convertTextCase(CaseFormat from, CaseFormat to, String value) {
+    return from.to(to).apply(value);
+  }
+
   /**
    * A utility method to evaluate a json path expression
    *
@@ -85,22 +90,18 @@ public interface MigrationVisitor {
     }
   }
 
+  /**
+   * Migrates each element of an array with the child visitor. Non-object elements are wrapped in an
+   * object under the "_" key. Arrays larger than {@link ArrayMigrationTask#getParallelThreshold()}
+   * are migrated in parallel if the child visitor does not touch the root.
+   *
+   * @param root the root object of the document
+   * @param list the array to migrate
+   * @param childVisitor the visitor for the element type
+   */
   @SuppressWarnings("unused")
   static void migrateArrayChildren(ObjectNode root, ArrayNode list, MigrationVisitor childVisitor) {
-    for (int i = 0; i < list.size(); i++) {
-      JsonNode indexedValue = list.get(i);
-      ObjectNode current = null;
-      if (indexedValue instanceof ObjectNode) {
-        current = (ObjectNode) indexedValue;
-        childVisitor.apply(root, current);
-      } else {
-        current = mapper.createObjectNode();
-        current.set("_", indexedValue);
-        childVisitor.apply(root, current);
-        current.remove("_");
-      }
-      list.set(i, current);
-    }
+    ArrayMigrationTask.migrate(root, list, childVisitor);
   }
 
   /**
@@ -116,6 +117,19 @@ public interface MigrationVisitor {
     if (nullish(node)) {
       return node;
     }
+    return mapper.valueToTree(replaceRegex(node.asText(), search, replace));
+  }
+
+  /**
+   * Applies a regex replacement to a plain string value. This is used by fused string stages so
+   * that a chain of stages can work over a String without building intermediate nodes.
+   *
+   * @param value the value to search
+   * @param search the regular expression
+   * @param replace the replacement expression
+   * @return the replaced value
+   */
+  static String replaceRegex(String value, String search, String replace) {
     Pattern pattern = PATTERN_CACHE.get(search);
     if (pattern == null) {
       pattern = Pattern.compile(search);
@@ -123,8 +137,35 @@ public interface MigrationVisitor {
         Logger.getAnonymousLogger().finest("Suspicious race to putIfAbsent");
       }
     }
-    String result = pattern.matcher(node.asText()).replaceAll(replace);
-    return mapper.valueToTree(result);
+    return pattern.matcher(value).replaceAll(replace);
+  }
+
+  /**
+   * Replaces every occurrence of a literal search string. This is the fast path for regex stages
+   * that contain no metacharacters.
+   *
+   * @param value the value to search
+   * @param search the literal text to find
+   * @param replace the literal replacement
+   * @return the replaced value
+   */
+  @SuppressWarnings("unused")
+  static String replaceText(String value, String search, String replace) {
+    if (search.isEmpty()) {
+      return value.replace(search, replace);
+    }
+    int next = value.indexOf(search);
+    if (next < 0) {
+      return value;
+    }
+    StringBuilder result = new StringBuilder(value.length() + 16);
+    int last = 0;
+    while (next >= 0) {
+      result.append(value, last, next).append(replace);
+      last = next + search.length();
+      next = value.indexOf(search, last);
+    }
+    return result.append(value, last, value.length()).toString();
   }
 
   /**
@@ -135,4 +176,14 @@ public interface MigrationVisitor {
    * @param local The local object within the root we are migrating.
    */
   void apply(ObjectNode root, JsonNode local);
+
+  /**
+   * Whether this visitor reads or writes the document root (through ROOT JSON-Path or Java stages).
+   * Visitors that do not can be applied to the elements of an array in parallel.
+   *
+   * @return true unless the visitor is known to only touch its local object.
+   */
+  default boolean touchesRoot() {
+    return true;
+  }
 }
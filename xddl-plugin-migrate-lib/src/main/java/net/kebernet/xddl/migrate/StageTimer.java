@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counts and times calls to one field migration or stage of an instrumented visitor. */
+public class StageTimer {
+  private final String name;
+  private final LongAdder count = new LongAdder();
+  private final LongAdder nanos = new LongAdder();
+
+  StageTimer(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Records one call.
+   *
+   * @param startNanos the System.nanoTime() value when the call started.
+   */
+  public void record(long startNanos) {
+    nanos.add(System.nanoTime() - startNanos);
+    count.increment();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getTotalNanos() {
+    return nanos.sum();
+  }
+
+  public double getMeanNanos() {
+    long calls = getCount();
+    return calls == 0 ? 0 : (double) getTotalNanos() / calls;
+  }
+
+  void reset() {
+    count.reset();
+    nanos.reset();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s: %d calls, %d ms total, %.0f ns mean",
+        name, getCount(), TimeUnit.NANOSECONDS.toMillis(getTotalNanos()), getMeanNanos());
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate.format;
+
+/**
+ * Converts a string between two {@link CaseFormat}s in a single pass over its characters, without
+ * building intermediate token arrays. Output is written to a reused thread-local buffer. ASCII input
+ * is converted with plain arithmetic; anything else falls back to the {@link Character} case
+ * methods.
+ */
+final class CaseConverter {
+  private static final int MAX_RETAINED_CAPACITY = 4096;
+  private static final ThreadLocal<StringBuilder> BUFFER =
+      ThreadLocal.withInitial(() -> new StringBuilder(64));
+
+  private static final char CAMEL = 0;
+  private static final char WHITESPACE = ' ';
+
+  private static final int LOWER = 0;
+  private static final int UPPER = 1;
+  private static final int UPPER_FIRST = 2;
+  private static final int UPPER_FIRST_AFTER_OUTPUT = 3;
+
+  private CaseConverter() {}
+
+  static String convert(CaseFormat from, CaseFormat to, String value) {
+    StringBuilder out = BUFFER.get();
+    out.setLength(0);
+    if (!convert(from, to, value, out, true)) {
+      if (to == CaseFormat.LOWER_WORDS) {
+        // LOWER_WORDS lower cases whole words with String.toLowerCase(), which is context and
+        // locale sensitive outside of ASCII, so it can't be done one char at a time.
+        return CaseFormat.LOWER_WORDS.format(from.tokens(value));
+      }
+      out.setLength(0);
+      convert(from, to, value, out, false);
+    }
+    String result = out.toString();
+    if (out.capacity() > MAX_RETAINED_CAPACITY) {
+      BUFFER.set(new StringBuilder(64));
+    }
+    return result;
+  }
+
+  /**
+   * Runs the conversion.
+   *
+   * @return false if asciiOnly was requested and a non-ASCII character was found.
+   */
+  private static boolean convert(
+      CaseFormat from, CaseFormat to, String value, StringBuilder out, boolean asciiOnly) {
+    final char delimiter = delimiter(from);
+    final char separator = separator(to);
+    final boolean wordSeparated = to == CaseFormat.LOWER_WORDS || to == CaseFormat.UPPER_WORDS;
+    final int casing = casing(to);
+
+    // Token starts that have not been emitted yet. Delimited formats start with an (empty) token,
+    // and trailing empty tokens are dropped, matching String.split().
+    int pendingStarts = delimiter == CAMEL ? 0 : 1;
+    int tokenIndex = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (asciiOnly && c >= 0x80) {
+        return false;
+      }
+      if (delimiter == CAMEL) {
+        if (i == 0 || (asciiOnly ? c >= 'A' && c <= 'Z' : Character.isUpperCase(c))) {
+          pendingStarts = 1;
+        }
+      } else if (delimiter == WHITESPACE ? isWhitespace(c) : c == delimiter) {
+        pendingStarts++;
+        continue;
+      }
+      if (pendingStarts > 0) {
+        if (wordSeparated) {
+          for (int s = 0; s < pendingStarts; s++) {
+            if (out.length() != 0) {
+              out.append(' ');
+            }
+          }
+        }
+        pendingStarts = 0;
+        tokenIndex = 0;
+      }
+      if (tokenIndex == 0 && separator != 0 && out.length() != 0) {
+        out.append(separator);
+      }
+      boolean upper;
+      switch (casing) {
+        case UPPER:
+          upper = true;
+          break;
+        case UPPER_FIRST:
+          upper = tokenIndex == 0;
+          break;
+        case UPPER_FIRST_AFTER_OUTPUT:
+          upper = tokenIndex == 0 && out.length() != 0;
+          break;
+        default:
+          upper = false;
+      }
+      if (asciiOnly) {
+        out.append(upper ? asciiUpper(c) : asciiLower(c));
+      } else {
+        out.append(upper ? Character.toUpperCase(c) : Character.toLowerCase(c));
+      }
+      tokenIndex++;
+    }
+    return true;
+  }
+
+  /** The characters matched by the \s regex class used to split words. */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  private static char asciiUpper(char c) {
+    return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+  }
+
+  private static char asciiLower(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+
+  private static char delimiter(CaseFormat format) {
+    switch (format) {
+      case LOWER_WORDS:
+      case UPPER_WORDS:
+        return WHITESPACE;
+      case LOWER_HYPHEN:
+        return '-';
+      case LOWER_SNAKE:
+      case UPPER_SNAKE:
+        return '_';
+      default:
+        return CAMEL;
+    }
+  }
+
+  private static char separator(CaseFormat format) {
+    switch (format) {
+      case LOWER_HYPHEN:
+        return '-';
+      case LOWER_SNAKE:
+      case UPPER_SNAKE:
+        return '_';
+      default:
+        return 0;
+    }
+  }
+
+  private static int casing(CaseFormat format) {
+    switch (format) {
+      case UPPER_SNAKE:
+        return UPPER;
+      case UPPER_WORDS:
+      case UPPER_CAMEL:
+        return UPPER_FIRST;
+      case LOWER_CAMEL:
+        return UPPER_FIRST_AFTER_OUTPUT;
+      default:
+        return LOWER;
+    }
+  }
+}
@@ -204,11 +204,30 @@ public enum CaseFormat {
   }
 
   public Function<String, String> to(CaseFormat target) {
-    return (s) -> target.implementation.format(this.implementation.tokens(s));
+    return (s) -> CaseConverter.convert(this, target, s);
   }
 
   public Function<String, String> from(CaseFormat target) {
-    return (s) -> this.implementation.format(target.implementation.tokens(s));
+    return (s) -> CaseConverter.convert(target, this, s);
+  }
+
+  /**
+   * Converts by splitting the value into tokens and formatting them. This is the reference
+   * implementation the single pass {@link CaseConverter} is measured and tested against.
+   *
+   * @param target the format to convert to
+   * @return a conversion function
+   */
+  Function<String, String> tokenizingTo(CaseFormat target) {
+    return (s) -> target.format(this.tokens(s));
+  }
+
+  String[] tokens(String string) {
+    return implementation.tokens(string);
+  }
+
+  String format(String[] tokens) {
+    return implementation.format(tokens);
   }
 
   private interface Implementation {
@@ -17,8 +17,11 @@ package net.kebernet.xddl.migrate.format;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import net.kebernet.xddl.migrate.MigrationVisitor;
 
 public class Template {
@@ -59,4 +62,65 @@ public class Template {
       }
     }
   }
+
+  /**
+   * Finds the empty object placeholders that insertInto() fills, so a generator can write to them
+   * directly.
+   *
+   * @param template the template graph
+   * @return the path of each placeholder as field names and array indexes from the template root
+   */
+  public static List<List<Object>> slots(JsonNode template) {
+    List<List<Object>> slots = new ArrayList<>();
+    findSlots(template, new ArrayList<>(), slots);
+    return slots;
+  }
+
+  /**
+   * Copies a template with its placeholders set to null, so copying it per document does not copy
+   * the placeholder objects.
+   *
+   * @param template the template graph
+   * @return the skeleton to fill at the paths from slots()
+   */
+  public static JsonNode skeleton(JsonNode template) {
+    JsonNode skeleton = template.deepCopy();
+    for (List<Object> slot : slots(template)) {
+      JsonNode parent = skeleton;
+      for (Object step : slot.subList(0, slot.size() - 1)) {
+        parent = step instanceof Integer ? parent.get((Integer) step) : parent.get((String) step);
+      }
+      Object last = slot.get(slot.size() - 1);
+      if (last instanceof Integer) {
+        ((ArrayNode) parent).set((Integer) last, NullNode.getInstance());
+      } else {
+        ((ObjectNode) parent).set((String) last, NullNode.getInstance());
+      }
+    }
+    return skeleton;
+  }
+
+  private static void findSlots(JsonNode node, List<Object> path, List<List<Object>> slots) {
+    if (node instanceof ObjectNode) {
+      for (Iterator<String> keys = node.fieldNames(); keys.hasNext(); ) {
+        String key = keys.next();
+        visitSlot(node.get(key), path, key, slots);
+      }
+    } else if (node instanceof ArrayNode) {
+      for (int i = 0; i < node.size(); i++) {
+        visitSlot(node.get(i), path, i, slots);
+      }
+    }
+  }
+
+  private static void visitSlot(
+      JsonNode child, List<Object> path, Object step, List<List<Object>> slots) {
+    path.add(step);
+    if (EMPTY.equals(child)) {
+      slots.add(new ArrayList<>(path));
+    } else {
+      findSlots(child, path, slots);
+    }
+    path.remove(path.size() - 1);
+  }
 }
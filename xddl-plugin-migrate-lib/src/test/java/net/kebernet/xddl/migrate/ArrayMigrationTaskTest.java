@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.After;
+import org.junit.Test;
+
+public class ArrayMigrationTaskTest {
+  private final int defaultThreshold = ArrayMigrationTask.getParallelThreshold();
+
+  @After
+  public void resetThreshold() {
+    ArrayMigrationTask.setParallelThreshold(defaultThreshold);
+  }
+
+  @Test
+  public void migratesLargeArraysInParallel() {
+    ArrayMigrationTask.setParallelThreshold(100);
+    ObjectNode root = MigrationVisitor.mapper.createObjectNode();
+    ArrayNode list = root.putArray("list");
+    for (int i = 0; i < 5000; i++) {
+      if (i % 2 == 0) {
+        list.add(i);
+      } else {
+        list.addObject().put("_", i);
+      }
+    }
+    MigrationVisitor visitor =
+        new MigrationVisitor() {
+          @Override
+          public void apply(ObjectNode root, JsonNode local) {
+            ((ObjectNode) local).put("value", local.get("_").asInt() * 2);
+          }
+
+          @Override
+          public boolean touchesRoot() {
+            return false;
+          }
+        };
+
+    MigrationVisitor.migrateArrayChildren(root, list, visitor);
+
+    for (int i = 0; i < list.size(); i++) {
+      assertThat(list.get(i).get("value").asInt()).isEqualTo(i * 2);
+      assertThat(list.get(i).has("_")).isEqualTo(i % 2 != 0);
+    }
+  }
+
+  @Test
+  public void migratesRootVisitorsSerially() {
+    ArrayMigrationTask.setParallelThreshold(10);
+    ObjectNode root = MigrationVisitor.mapper.createObjectNode();
+    ArrayNode list = root.putArray("list");
+    for (int i = 0; i < 100; i++) {
+      list.add(i);
+    }
+    String caller = Thread.currentThread().getName();
+    MigrationVisitor visitor =
+        (r, local) -> {
+          assertThat(Thread.currentThread().getName()).isEqualTo(caller);
+          r.put("count", r.path("count").asInt() + 1);
+        };
+
+    MigrationVisitor.migrateArrayChildren(root, list, visitor);
+
+    assertThat(root.get("count").asInt()).isEqualTo(100);
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import org.junit.Test;
+
+public class InterningNodeFactoryTest {
+  private static final String DOCUMENT =
+      "{\"status\":\"OPEN\",\"code\":4040,\"note\":\"long text value\"}";
+
+  @Test
+  public void testSharesRepeatedValues() throws IOException {
+    InterningNodeFactory factory = new InterningNodeFactory(100, 8);
+    ObjectMapper mapper = new ObjectMapper().setNodeFactory(factory);
+    JsonNode first = mapper.readTree(DOCUMENT);
+    JsonNode second = mapper.readTree(DOCUMENT);
+
+    assertThat(second.get("status")).isSameInstanceAs(first.get("status"));
+    assertThat(second.get("code")).isSameInstanceAs(first.get("code"));
+    assertThat(second.get("note")).isNotSameInstanceAs(first.get("note"));
+    assertThat(factory.getHits()).isEqualTo(2);
+    assertThat(factory.getMisses()).isEqualTo(2);
+    assertThat(factory.getBytesSaved()).isGreaterThan(0L);
+  }
+
+  @Test
+  public void testBounded() {
+    InterningNodeFactory factory = new InterningNodeFactory(10, 32);
+    for (int i = 0; i < 100; i++) {
+      factory.textNode("value" + i);
+    }
+    assertThat(factory.getEntries()).isEqualTo(10);
+    assertThat(factory.textNode("value1")).isSameInstanceAs(factory.textNode("value1"));
+    assertThat(factory.textNode("value99")).isNotSameInstanceAs(factory.textNode("value99"));
+  }
+
+  @Test
+  public void testDisabled() {
+    InterningNodeFactory factory = new InterningNodeFactory(0, 32);
+    assertThat(factory.textNode("a")).isNotSameInstanceAs(factory.textNode("a"));
+    assertThat(factory.getEntries()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class LookupIndexTest {
+
+  @Test
+  public void testReadCsv() throws IOException {
+    List<List<String>> rows = new ArrayList<>();
+    LookupIndex.readCsv(
+        new StringReader("a,b\r\n1,\"x, \"\"y\"\"\"\n\n2,\"multi\nline\"\n3,"), rows::add);
+
+    assertThat(rows)
+        .containsExactly(
+            Arrays.asList("a", "b"),
+            Arrays.asList("1", "x, \"y\""),
+            Arrays.asList("2", "multi\nline"),
+            Arrays.asList("3", ""))
+        .inOrder();
+  }
+
+  @Test
+  public void testCsvAndNdjson() throws IOException {
+    File directory = new File("build/test-lookup");
+    directory.mkdirs();
+    File csv = new File(directory, "stores.csv");
+    Files.write(csv.toPath(), "id,region\n1,North\n2,South\n2,West\n".getBytes(UTF_8));
+    File ndjson = new File(directory, "stores.ndjson");
+    Files.write(
+        ndjson.toPath(),
+        "{\"id\":1,\"region\":{\"name\":\"North\"}}\n\n{\"id\":2}\n".getBytes(UTF_8));
+
+    LookupIndex regions = LookupIndex.open(csv.getPath(), null, "id", "region");
+    assertThat(regions.size()).isEqualTo(2);
+    assertThat(regions.lookup("1").asText()).isEqualTo("North");
+    assertThat(regions.lookup("2").asText()).isEqualTo("West");
+    assertThat(regions.lookup("3")).isNull();
+    assertThat(LookupIndex.open(csv.getPath(), "csv", "id", "region")).isSameInstanceAs(regions);
+    assertThat(regions.indexFile().isFile()).isTrue();
+
+    LookupIndex reloaded =
+        new LookupIndex(csv.getAbsoluteFile(), LookupIndex.Format.CSV, "id", "region");
+    assertThat(reloaded.lookup("1").asText()).isEqualTo("North");
+
+    LookupIndex objects = LookupIndex.open(ndjson.getPath(), null, "id", "region");
+    assertThat(objects.lookup("1").get("name").asText()).isEqualTo("North");
+    assertThat(objects.lookup("2")).isNull();
+  }
+}
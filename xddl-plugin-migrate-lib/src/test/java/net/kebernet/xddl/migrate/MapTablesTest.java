@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import java.util.HashMap;
+import org.junit.Test;
+
+public class MapTablesTest {
+
+  @Test
+  public void testIntTable() {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = -10_000; i < 10_000; i += 7) {
+      json.append(json.length() == 1 ? "" : ",");
+      json.append("[").append(i).append(",\"v").append(i % 5).append("\"]");
+    }
+    json.append("]");
+    String text = json.toString();
+    IntJsonNodeMap map =
+        MapTables.intTable(text.substring(0, 100), text.substring(100, 1000), text.substring(1000));
+
+    assertThat(map.size()).isEqualTo(2858);
+    assertThat(map.get(-10_000).asText()).isEqualTo("v0");
+    assertThat(map.get(9_999).asText()).isEqualTo("v4");
+    assertThat(map.get(1)).isNull();
+    assertThat(map.get(Integer.MIN_VALUE)).isNull();
+    assertThat(map.get(-9_993)).isSameInstanceAs(map.get(-9_958));
+  }
+
+  @Test
+  public void testTextTableLastEntryWins() {
+    HashMap<String, JsonNode> map = MapTables.textTable("[[\"a\",1],[\"b\",", "1],[\"a\",2]]");
+    assertThat(map.get("a").asInt()).isEqualTo(2);
+    assertThat(map.get("b").asInt()).isEqualTo(1);
+  }
+
+  @Test
+  public void testLargeIntTable() {
+    // Past 2^16 slots, where every key must still be found and the table must not fill up.
+    IntJsonNodeMap map = new IntJsonNodeMap(100_000);
+    for (int i = 0; i < 100_000; i++) {
+      map.put(i * 31, IntNode.valueOf(i));
+    }
+    assertThat(map.size()).isEqualTo(100_000);
+    for (int i = 0; i < 100_000; i++) {
+      assertThat(map.get(i * 31).asInt()).isEqualTo(i);
+    }
+    assertThat(map.get(1)).isNull();
+  }
+}
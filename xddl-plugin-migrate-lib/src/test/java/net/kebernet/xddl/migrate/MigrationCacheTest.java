@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.junit.Test;
+
+public class MigrationCacheTest {
+
+  @Test
+  public void testHitsMissesAndCopies() {
+    MigrationCache cache = MigrationCache.cache("CacheTest.copies", 100);
+    ObjectNode result = MigrationVisitor.mapper.createObjectNode().put("value", "A");
+
+    assertThat(cache.get(TextNode.valueOf("a"))).isNull();
+    cache.put(TextNode.valueOf("a"), result);
+    result.put("value", "changed");
+    JsonNode first = cache.get(TextNode.valueOf("a"));
+    JsonNode second = cache.get(TextNode.valueOf("a"));
+
+    assertThat(first.get("value").asText()).isEqualTo("A");
+    assertThat(first).isNotSameInstanceAs(second);
+    assertThat(cache.getHits()).isEqualTo(2);
+    assertThat(cache.getMisses()).isEqualTo(1);
+    assertThat(MigrationCache.cache("CacheTest.copies", 1)).isSameInstanceAs(cache);
+    assertThat(MigrationCache.table()).contains("CacheTest.copies");
+  }
+
+  @Test
+  public void testBounded() {
+    MigrationCache cache = new MigrationCache("CacheTest.bounded", 32);
+    for (int i = 0; i < 10_000; i++) {
+      cache.put(IntNode.valueOf(i), IntNode.valueOf(-i));
+      cache.get(IntNode.valueOf(0));
+    }
+    assertThat(cache.size()).isAtMost(32);
+    assertThat(cache.get(IntNode.valueOf(0)).asInt()).isEqualTo(0);
+    assertThat(cache.get(IntNode.valueOf(9_999)).asInt()).isEqualTo(-9_999);
+    assertThat(cache.get(IntNode.valueOf(1))).isNull();
+
+    cache.clear();
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.getHits()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class MigrationMetricsTest {
+
+  @Test
+  public void testSlowestOrdering() {
+    StageTimer fast = MigrationMetrics.timer("MetricsTest.fast");
+    StageTimer slow = MigrationMetrics.timer("MetricsTest.slow");
+    MigrationMetrics.timer("MetricsTest.unused");
+    fast.record(System.nanoTime());
+    slow.record(System.nanoTime() - 1_000_000_000L);
+
+    assertThat(MigrationMetrics.timer("MetricsTest.fast")).isSameInstanceAs(fast);
+    assertThat(MigrationMetrics.slowest(1)).containsExactly(slow);
+    assertThat(MigrationMetrics.table(10)).contains("MetricsTest.slow");
+    assertThat(MigrationMetrics.table(10)).doesNotContain("MetricsTest.unused");
+
+    MigrationMetrics.reset();
+    assertThat(slow.getCount()).isEqualTo(0);
+    assertThat(MigrationMetrics.table(10)).isEmpty();
+  }
+}
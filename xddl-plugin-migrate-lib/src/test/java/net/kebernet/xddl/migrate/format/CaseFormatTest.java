@@ -85,4 +85,31 @@ public class CaseFormatTest {
     Truth.assertThat(CaseFormat.LOWER_SNAKE.to(CaseFormat.LOWER_WORDS).apply("this1_is_a_test"))
         .isEqualTo("this1 is a test");
   }
+
+  @Test
+  public void testSinglePassMatchesTokenizing() {
+    String[] inputs = {
+      "",
+      " ",
+      "_",
+      "--leading",
+      "trailing__",
+      "two  spaces",
+      "This is a test",
+      "thisIsATest",
+      "THIS1_IS_A_TEST",
+      "This-is-A-test",
+      "ABC",
+      "\u00e9t\u00e9 \u00c9t\u00e9_stra\u00dfe"
+    };
+    for (String input : inputs) {
+      for (CaseFormat from : CaseFormat.values()) {
+        for (CaseFormat to : CaseFormat.values()) {
+          Truth.assertWithMessage(from + " -> " + to + " [" + input + "]")
+              .that(from.to(to).apply(input))
+              .isEqualTo(from.tokenizingTo(to).apply(input));
+        }
+      }
+    }
+  }
 }
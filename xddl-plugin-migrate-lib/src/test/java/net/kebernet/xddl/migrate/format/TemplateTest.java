@@ -19,6 +19,7 @@ import static com.google.common.truth.Truth.assertThat;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import java.util.Arrays;
 import net.kebernet.xddl.migrate.MigrationVisitor;
 import org.junit.Test;
 
@@ -41,4 +42,19 @@ public class TemplateTest {
     assertThat(new Template(value).insertInto(template))
         .isEqualTo(MigrationVisitor.mapper.readTree(("[\"foo\",\"bar\",\"quux\", \"baz\"]")));
   }
+
+  @Test
+  public void testSlotsAndSkeleton() throws JsonProcessingException {
+    JsonNode template =
+        MigrationVisitor.mapper.readTree("{\"a\":[1,{}],\"b\":{\"c\":{}},\"d\":{}}");
+
+    assertThat(Template.slots(template))
+        .containsExactly(Arrays.asList("a", 1), Arrays.asList("b", "c"), Arrays.asList("d"))
+        .inOrder();
+    assertThat(Template.skeleton(template))
+        .isEqualTo(
+            MigrationVisitor.mapper.readTree(
+                "{\"a\":[1,null],\"b\":{\"c\":null},\"d\":null}"));
+    assertThat(Template.slots(MigrationVisitor.mapper.readTree("{}"))).isEmpty();
+  }
 }
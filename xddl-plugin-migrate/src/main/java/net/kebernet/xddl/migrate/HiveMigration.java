@@ -0,0 +1,421 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import static net.kebernet.xddl.model.Utils.neverNull;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import net.kebernet.xddl.Loader;
+import net.kebernet.xddl.hive.HivePlugin;
+import net.kebernet.xddl.migrate.format.CaseFormat;
+import net.kebernet.xddl.model.BaseType;
+import net.kebernet.xddl.model.List;
+import net.kebernet.xddl.model.PatchDelete;
+import net.kebernet.xddl.model.Reference;
+import net.kebernet.xddl.model.Structure;
+import net.kebernet.xddl.plugins.Context;
+
+/**
+ * Writes a HiveQL {@code INSERT OVERWRITE ... SELECT} that rewrites the previous glide version's
+ * table into this version's, translating the entry structure's field migrations into column
+ * expressions. A STRUCT column with migrations on its own fields, or its referenced structure's,
+ * is rebuilt with {@code named_struct}. If any stage has no translation, including any migration
+ * inside an ARRAY column, the file lists those stages instead of a statement, so a partial
+ * rewrite is never run by accident.
+ */
+class HiveMigration {
+  private static final String SOURCE = "src";
+  private final Context ctx;
+  private final Context previous;
+  private final ArrayList<String> unsupported = new ArrayList<>();
+
+  HiveMigration(Context context, Context previous) {
+    this.ctx = context;
+    this.previous = previous;
+    if (context.getSpecification().getEntryRef() == null
+        || previous.getSpecification().getEntryRef() == null) {
+      throw context.stateException(
+          "Hive migrations need an entryRef in both versions", context.getSpecification().ext());
+    }
+  }
+
+  /** Builds the statement, and the list of {@link #getUnsupported()} stages along with it. */
+  String statement() {
+    unsupported.clear();
+    Structure entry = ctx.entryRefStructure();
+    Structure previousEntry = previous.entryRefStructure();
+    ArrayList<String> columns = new ArrayList<>();
+    for (BaseType property : neverNull(entry.getProperties())) {
+      if (!(property instanceof PatchDelete)) {
+        columns.add(column(property, previousEntry) + " AS " + identifier(property.getName()));
+      }
+    }
+    ArrayList<String> partitions = new ArrayList<>();
+    JsonNode options = HivePlugin.options(ctx);
+    if (options.has("partitioned-by")) {
+      for (String definition : options.get("partitioned-by").asText().split(",")) {
+        String name = definition.trim().split("\\s+")[0];
+        partitions.add(name);
+        columns.add(SOURCE + "." + name);
+      }
+    }
+
+    StringBuilder result =
+        new StringBuilder("-- Migrates ")
+            .append(HivePlugin.tableName(previous))
+            .append(" (")
+            .append(previous.getSpecification().getVersion())
+            .append(") to ")
+            .append(HivePlugin.tableName(ctx))
+            .append(" (")
+            .append(ctx.getSpecification().getVersion())
+            .append(")\n");
+    if (!unsupported.isEmpty()) {
+      result.append("-- No statement was generated. These stages have no HiveQL translation:\n");
+      unsupported.forEach(u -> result.append("--   ").append(u).append('\n'));
+      return result.toString();
+    }
+    if (!partitions.isEmpty()) {
+      result.append("SET hive.exec.dynamic.partition.mode=nonstrict;\n");
+    }
+    result.append("INSERT OVERWRITE TABLE ").append(HivePlugin.tableName(ctx));
+    if (!partitions.isEmpty()) {
+      result.append(" PARTITION (").append(Joiner.on(", ").join(partitions)).append(")");
+    }
+    return result
+        .append("\nSELECT\n  ")
+        .append(Joiner.on(",\n  ").join(columns))
+        .append("\nFROM ")
+        .append(HivePlugin.tableName(previous))
+        .append(' ')
+        .append(SOURCE)
+        .append(";\n")
+        .toString();
+  }
+
+  /** @return the stages the last {@link #statement()} had no translation for. */
+  java.util.List<String> getUnsupported() {
+    return ImmutableList.copyOf(unsupported);
+  }
+
+  void write(File directory) throws IOException {
+    String statement = statement();
+    File outputFile = new File(directory, ctx.createBaseFilename() + ".migrate.hive");
+    try (OutputStreamWriter writer =
+        new OutputStreamWriter(new FileOutputStream(outputFile), Charsets.UTF_8)) {
+      writer.write(statement);
+    }
+  }
+
+  private String column(BaseType property, Structure previousEntry) {
+    String name = property.getName();
+    return value(
+        property, findProperty(previousEntry, name), SOURCE + "." + identifier(name), name);
+  }
+
+  /**
+   * @param property the field in this version
+   * @param previousProperty the field it is read from in the previous version, or null
+   * @param field the expression for the previous field
+   * @param name the dotted path of the field, for the unsupported list
+   * @return the expression for the field in this version.
+   */
+  private String value(BaseType property, BaseType previousProperty, String field, String name) {
+    String type = HivePlugin.columnType(ctx, property);
+    String source = previousProperty == null ? "NULL" : field;
+    BaseType resolved = ctx.resolve(property);
+    JsonNode node = (JsonNode) resolved.ext().get("migration");
+    if (node == null) {
+      if (previousProperty == null) {
+        return "CAST(NULL AS " + type + ")";
+      }
+      String previousType = HivePlugin.columnType(previous, previousProperty);
+      BaseType previousResolved = previous.resolve(previousProperty);
+      if (resolved instanceof Structure
+          && previousResolved instanceof Structure
+          && (!type.equals(previousType) || migratesFields((Structure) resolved))) {
+        return struct(
+            (Structure) resolved,
+            (Structure) previousResolved,
+            source,
+            Collections.emptyMap(),
+            name);
+      }
+      if (resolved instanceof List && migrates(((List) resolved).getContains(), new HashSet<>())) {
+        unsupported.add(name + ": migrations inside an ARRAY");
+        return source;
+      }
+      if (type.equals(previousType)) {
+        return source;
+      }
+      if (isComplex(type) || isComplex(previousType)) {
+        unsupported.add(name + ": changed from " + previousType + " to " + type);
+        return source;
+      }
+      return "CAST(" + source + " AS " + type + ")";
+    }
+    Migration migration;
+    try {
+      migration = Loader.mapper().treeToValue(node, Migration.class);
+    } catch (JsonProcessingException e) {
+      throw ctx.stateException("Unable to parse migration node: " + e.getMessage(), property);
+    }
+    if (migration.getOp() == Migration.Operation.MIXIN) {
+      unsupported.add(name + ": MIXIN migrations");
+      return source;
+    }
+    String expression = source;
+    LinkedHashMap<String, String> renames = new LinkedHashMap<>();
+    boolean leading = true;
+    int index = 0;
+    for (Stage stage : neverNull(migration.getStages())) {
+      stage.setIndex(index++);
+      if (stage instanceof RenameStage && leading) {
+        RenameStage rename = (RenameStage) stage;
+        String from = renames.getOrDefault(rename.getFrom(), rename.getFrom());
+        renames.remove(rename.getFrom());
+        renames.put(rename.getTo(), from);
+        continue;
+      }
+      if (leading && !renames.isEmpty()) {
+        expression = renamed(property, previousProperty, source, renames, name);
+      }
+      leading = false;
+      if (stage instanceof LiteralStage) {
+        expression = literal(name, stage, ((LiteralStage) stage).getValue());
+      } else if (stage instanceof MapStage) {
+        expression = caseWhen(name, (MapStage) stage, expression);
+      } else if (stage instanceof CaseStage) {
+        CaseStage caseStage = (CaseStage) stage;
+        expression = convertCase(caseStage.getFrom(), caseStage.getTo(), expression);
+      } else if (stage instanceof RegexStage) {
+        RegexStage regex = (RegexStage) stage;
+        expression =
+            "regexp_replace("
+                + expression
+                + ", "
+                + quote(regex.getSearch())
+                + ", "
+                + quote(regex.getReplace())
+                + ")";
+      } else {
+        unsupported.add(describe(name, stage));
+      }
+    }
+    if (leading && !renames.isEmpty()) {
+      return renamed(property, previousProperty, source, renames, name);
+    }
+    return isComplex(type) ? expression : "CAST(" + expression + " AS " + type + ")";
+  }
+
+  /** Rebuilds a struct column with renamed fields. */
+  private String renamed(
+      BaseType property,
+      BaseType previousProperty,
+      String source,
+      Map<String, String> renames,
+      String name) {
+    BaseType resolved = ctx.resolve(property);
+    BaseType previousResolved =
+        previousProperty == null ? null : previous.resolve(previousProperty);
+    if (!(resolved instanceof Structure) || !(previousResolved instanceof Structure)) {
+      unsupported.add(name + ": rename on a column that isn't a STRUCT in both");
+      return source;
+    }
+    return struct((Structure) resolved, (Structure) previousResolved, source, renames, name);
+  }
+
+  /**
+   * Rebuilds a struct from the previous one, field by field, so the fields' own migrations apply.
+   * {@code renames} maps each new field name to the field of the previous struct it is read from.
+   */
+  private String struct(
+      Structure structure,
+      Structure previousStructure,
+      String source,
+      Map<String, String> renames,
+      String name) {
+    ArrayList<String> fields = new ArrayList<>();
+    for (BaseType field : neverNull(structure.getProperties())) {
+      if (field instanceof PatchDelete) {
+        continue;
+      }
+      String from = renames.getOrDefault(field.getName(), field.getName());
+      fields.add(quote(field.getName()));
+      fields.add(
+          value(
+              field,
+              findProperty(previousStructure, from),
+              source + "." + identifier(from),
+              name + "." + field.getName()));
+    }
+    return "CASE WHEN "
+        + source
+        + " IS NULL THEN NULL ELSE named_struct("
+        + Joiner.on(", ").join(fields)
+        + ") END";
+  }
+
+  private boolean migratesFields(Structure structure) {
+    return neverNull(structure.getProperties()).stream()
+        .anyMatch(field -> migrates(field, new HashSet<>()));
+  }
+
+  /**
+   * @param references the structures already looked into, as a structure can refer to itself
+   * @return true if the type, or a field or member of it, has a migration.
+   */
+  private boolean migrates(BaseType type, Set<String> references) {
+    if (type == null || type instanceof PatchDelete) {
+      return false;
+    }
+    if (type instanceof Reference && !references.add(((Reference) type).getRef())) {
+      return false;
+    }
+    BaseType resolved = ctx.resolve(type);
+    if (resolved.ext().get("migration") != null) {
+      return true;
+    }
+    if (resolved instanceof Structure) {
+      return neverNull(((Structure) resolved).getProperties()).stream()
+          .anyMatch(field -> migrates(field, references));
+    }
+    return resolved instanceof List && migrates(((List) resolved).getContains(), references);
+  }
+
+  private String literal(String name, Stage stage, JsonNode value) {
+    if (value == null || value.isNull()) {
+      return "NULL";
+    }
+    if (value.isNumber()) {
+      return value.asText();
+    }
+    if (value.isBoolean()) {
+      return value.asBoolean() ? "TRUE" : "FALSE";
+    }
+    if (value.isTextual()) {
+      return quote(value.textValue());
+    }
+    unsupported.add(describe(name, stage) + " with a " + value.getNodeType() + " value");
+    return "NULL";
+  }
+
+  /** Later entries win, so keys are deduplicated before the first matching WHEN is written. */
+  private String caseWhen(String name, MapStage stage, String expression) {
+    LinkedHashMap<JsonNode, JsonNode> entries = new LinkedHashMap<>();
+    neverNull(stage.getValues())
+        .forEach(
+            v ->
+                entries.put(
+                    v.getFrom() == null ? NullNode.getInstance() : v.getFrom(),
+                    v.getTo() == null ? NullNode.getInstance() : v.getTo()));
+    if (entries.isEmpty()) {
+      return expression;
+    }
+    StringBuilder result = new StringBuilder("CASE");
+    entries.forEach(
+        (from, to) ->
+            result
+                .append(" WHEN ")
+                .append(expression)
+                .append(from.isNull() ? " IS NULL" : " = " + literal(name, stage, from))
+                .append(" THEN ")
+                .append(literal(name, stage, to)));
+    return result.append(" ELSE ").append(expression).append(" END").toString();
+  }
+
+  /**
+   * Mirrors {@link CaseFormat}: the value is split into space separated words, then joined and
+   * cased for the target format. Hive's initcap() capitalizes each word and lowers the rest.
+   */
+  static String convertCase(CaseFormat from, CaseFormat to, String expression) {
+    if (from == to) {
+      return expression;
+    }
+    String words;
+    switch (from) {
+      case LOWER_WORDS:
+      case UPPER_WORDS:
+        words = "regexp_replace(" + expression + ", '\\\\s', ' ')";
+        break;
+      case LOWER_HYPHEN:
+        words = "regexp_replace(" + expression + ", '-', ' ')";
+        break;
+      case LOWER_SNAKE:
+      case UPPER_SNAKE:
+        words = "regexp_replace(" + expression + ", '_', ' ')";
+        break;
+      default:
+        words = "regexp_replace(" + expression + ", '(?<!^)(?=[A-Z])', ' ')";
+    }
+    switch (to) {
+      case LOWER_WORDS:
+        return "lower(" + words + ")";
+      case UPPER_WORDS:
+        return "initcap(" + words + ")";
+      case LOWER_HYPHEN:
+        return "lower(regexp_replace(" + words + ", ' ', '-'))";
+      case LOWER_SNAKE:
+        return "lower(regexp_replace(" + words + ", ' ', '_'))";
+      case UPPER_SNAKE:
+        return "upper(regexp_replace(" + words + ", ' ', '_'))";
+      case UPPER_CAMEL:
+        return "regexp_replace(initcap(" + words + "), ' ', '')";
+      default:
+        String camel = "regexp_replace(initcap(" + words + "), ' ', '')";
+        return "concat(lower(substr(" + camel + ", 1, 1)), substr(" + camel + ", 2))";
+    }
+  }
+
+  private static String describe(String name, Stage stage) {
+    return name + ": stage " + stage.getIndex() + " (" + StructureMigration.stageLabel(stage) + ")";
+  }
+
+  private static boolean isComplex(String type) {
+    return type.startsWith("STRUCT<") || type.startsWith("ARRAY<");
+  }
+
+  static String quote(String value) {
+    return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+  }
+
+  private static String identifier(String name) {
+    return "`" + name.replace("`", "``") + "`";
+  }
+
+  private static BaseType findProperty(Structure structure, String name) {
+    return neverNull(structure.getProperties()).stream()
+        .filter(p -> !(p instanceof PatchDelete) && Objects.equals(p.getName(), name))
+        .findFirst()
+        .orElse(null);
+  }
+}
@@ -15,29 +15,128 @@
  */
 package net.kebernet.xddl.migrate;
 
+import static java.util.Optional.ofNullable;
+
 import java.io.File;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import net.kebernet.xddl.Loader;
+import net.kebernet.xddl.model.Structure;
 import net.kebernet.xddl.plugins.Context;
-import net.kebernet.xddl.plugins.Plugin;
+import net.kebernet.xddl.plugins.PartitionedPlugin;
+import net.kebernet.xddl.plugins.WorkUnit;
+
+public class MigratePlugin implements PartitionedPlugin {
+  /** The specification ext key for the plugin's options. */
+  public static final String OPTIONS_EXT = "migrate";
+  /** The specification ext key glide records the previous version under. */
+  public static final String GLIDE_EXT = "glide";
+
+  /**
+   * Whether the generated visitors should time each field migration and stage. This is enabled with
+   * {@code "ext": {"migrate": {"instrument": true}}} on the specification.
+   *
+   * @param context the generation context
+   * @return true if instrumentation was requested
+   */
+  static boolean isInstrumented(Context context) {
+    return option(context, "instrument");
+  }
 
-public class MigratePlugin implements Plugin {
+  /**
+   * Whether each top-level structure should be generated as a single class, with nested, referenced
+   * and list element structures as private methods. This is enabled with {@code "ext": {"migrate":
+   * {"flatten": true}}} on the specification.
+   *
+   * @param context the generation context
+   * @return true if flattened visitors were requested
+   */
+  static boolean isFlattened(Context context) {
+    return option(context, "flatten");
+  }
+
+  /**
+   * Reads the previous glide version of the specification when typed mappers or a Hive migration
+   * were requested with {@code "ext": {"migrate": {"typedMappers": true}}} or {@code "hive": true}.
+   * Glide records the previous version's unified file, relative to this one, as {@code
+   * ext.glide.previous}; the baseline has none.
+   *
+   * @param context the generation context
+   * @return a context for the previous version, if there is one and it is needed
+   */
+  static Optional<Context> previousVersion(Context context) {
+    boolean typedMappers = option(context, "typedMappers");
+    if (!typedMappers && !option(context, "hive")) {
+      return Optional.empty();
+    }
+    if (typedMappers && isFlattened(context)) {
+      throw context.stateException(
+          "typedMappers call the migrate_ methods of layered visitors and can't be flattened",
+          context.getSpecification().getExt().get(OPTIONS_EXT));
+    }
+    Optional<String> previous =
+        ofNullable(context.getSpecification().getExt().get(GLIDE_EXT))
+            .map(glide -> glide.path("previous").asText(null));
+    if (!previous.isPresent() || context.getSpecificationFile() == null) {
+      return Optional.empty();
+    }
+    File file =
+        new File(context.getSpecificationFile().getAbsoluteFile().getParentFile(), previous.get());
+    Context result = new Context(Loader.mapper(), Loader.builder().main(file).build().read());
+    result.setSpecificationFile(file);
+    return Optional.of(result);
+  }
+
+  private static boolean option(Context context, String name) {
+    return ofNullable(context.getSpecification().getExt())
+        .map(ext -> ext.get(OPTIONS_EXT))
+        .map(options -> options.path(name).asBoolean(false))
+        .orElse(false);
+  }
 
   @Override
   public String getName() {
     return "migrate";
   }
 
+  /**
+   * One unit per top-level structure, writing its visitors and, when requested, its typed mapper,
+   * and one for the Hive migration.
+   */
   @Override
-  public String generateArtifacts(Context context, File outputDirectory) throws IOException {
-    context
-        .getSpecification()
-        .getStructures()
-        .forEach(
-            s -> {
-              StructureMigration migration = new StructureMigration(context, s, null);
-              migration.write(outputDirectory);
-            });
+  public List<WorkUnit> workUnits(Context context, File outputDirectory) {
+    Context previous = previousVersion(context).orElse(null);
+    boolean typedMappers = previous != null && option(context, "typedMappers");
+    List<WorkUnit> units = new ArrayList<>();
+    for (Structure structure : context.getSpecification().structures()) {
+      units.add(
+          new WorkUnit(
+              structure.getName(),
+              () -> {
+                new StructureMigration(context, structure, null).write(outputDirectory);
+                if (!typedMappers) {
+                  return;
+                }
+                previous.getSpecification().structures().stream()
+                    .filter(p -> structure.getName().equals(p.getName()))
+                    .findFirst()
+                    .ifPresent(
+                        p ->
+                            new TypedMapper(context, previous, structure, p)
+                                .write(outputDirectory));
+              }));
+    }
+    if (previous != null && option(context, "hive")) {
+      units.add(
+          new WorkUnit(
+              "hive", () -> new HiveMigration(context, previous).write(outputDirectory)));
+    }
+    return units;
+  }
 
+  @Override
+  public String finish(Context context, File outputDirectory) {
     return outputDirectory.getAbsolutePath();
   }
 }
@@ -27,6 +27,13 @@ public class Migration {
   private Operation op = Operation.REPLACE;
   private JsonNode defaultMixinValue;
   private List<Stage> stages = new ArrayList<>();
+  /**
+   * Whether the stages only depend on the value of the field, so results can be cached by input
+   * value.
+   */
+  private boolean pure;
+  /** The number of results to cache for a pure migration. */
+  private int cacheSize = 4096;
 
   public enum Operation {
     REPLACE,
@@ -31,7 +31,8 @@ import lombok.Setter;
   @JsonSubTypes.Type(value = RenameStage.class, name = "rename"),
   @JsonSubTypes.Type(value = CaseStage.class, name = "case"),
   @JsonSubTypes.Type(value = TemplateStage.class, name = "template"),
-  @JsonSubTypes.Type(value = JavaStage.class, name = "java")
+  @JsonSubTypes.Type(value = JavaStage.class, name = "java"),
+  @JsonSubTypes.Type(value = LookupStage.class, name = "lookup")
 })
 public class Stage {
   private int index;
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.kebernet.xddl.model.Utils;
+
+/**
+ * Rewrites the stages of a migration before code is generated for them.
+ *
+ * <ul>
+ *   <li>Stages that a {@link LiteralStage} overwrites are dropped, unless they may have side effects
+ *       ({@link RenameStage}, {@link JavaStage}).
+ *   <li>Runs of regex, case and text-only map stages are fused into a {@link FusedStringStage} so
+ *       they work over one String and build a single node.
+ *   <li>A regex without metacharacters is fused on its own so it is emitted as a plain text
+ *       replacement.
+ * </ul>
+ *
+ * Stages keep the index assigned to them before optimization, so generated member names are stable.
+ */
+class StageOptimizer {
+  private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+
+  private StageOptimizer() {}
+
+  static List<Stage> optimize(List<Stage> stages) {
+    return fuse(eliminateDeadStages(Utils.neverNull(stages)));
+  }
+
+  static List<Stage> eliminateDeadStages(Iterable<Stage> stages) {
+    ArrayList<Stage> result = new ArrayList<>();
+    for (Stage stage : stages) {
+      if (stage instanceof LiteralStage) {
+        while (!result.isEmpty() && !hasSideEffects(result.get(result.size() - 1))) {
+          result.remove(result.size() - 1);
+        }
+      }
+      result.add(stage);
+    }
+    return result;
+  }
+
+  static List<Stage> fuse(List<Stage> stages) {
+    ArrayList<Stage> result = new ArrayList<>();
+    FusedStringStage run = null;
+    for (Stage stage : stages) {
+      boolean joins =
+          run == null ? startsStringRun(stage) : startsStringRun(stage) || isTextMap(stage);
+      if (!joins) {
+        flush(run, result);
+        run = null;
+        result.add(stage);
+        continue;
+      }
+      if (run == null) {
+        run = new FusedStringStage();
+        run.setIndex(stage.getIndex());
+      }
+      run.getSteps().add(stage);
+    }
+    flush(run, result);
+    return result;
+  }
+
+  private static void flush(FusedStringStage run, List<Stage> result) {
+    if (run == null) {
+      return;
+    }
+    if (run.getSteps().size() > 1 || isPlainTextRegex(run.getSteps().get(0))) {
+      result.add(run);
+    } else {
+      result.addAll(run.getSteps());
+    }
+  }
+
+  private static boolean hasSideEffects(Stage stage) {
+    return stage instanceof RenameStage || stage instanceof JavaStage;
+  }
+
+  private static boolean startsStringRun(Stage stage) {
+    return stage instanceof RegexStage || stage instanceof CaseStage;
+  }
+
+  /**
+   * Only maps from text to text can be applied to a String. After a regex or case stage the value
+   * is always text, so these maps are the only ones that can match.
+   */
+  static boolean isTextMap(Stage stage) {
+    if (!(stage instanceof MapStage)) {
+      return false;
+    }
+    return Utils.neverNull(((MapStage) stage).getValues()).stream()
+        .allMatch(
+            v ->
+                v.getFrom() != null
+                    && v.getFrom().isTextual()
+                    && v.getTo() != null
+                    && v.getTo().isTextual());
+  }
+
+  static boolean isPlainTextRegex(Stage stage) {
+    if (!(stage instanceof RegexStage)) {
+      return false;
+    }
+    RegexStage regex = (RegexStage) stage;
+    return isPlainText(regex.getSearch(), REGEX_METACHARACTERS)
+        && isPlainText(regex.getReplace(), "\\$");
+  }
+
+  private static boolean isPlainText(String value, String metacharacters) {
+    if (value == null) {
+      return false;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      if (metacharacters.indexOf(value.charAt(i)) >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -18,6 +18,7 @@ package net.kebernet.xddl.migrate;
 import static java.util.Optional.ofNullable;
 import static net.kebernet.xddl.java.Resolver.resolvePackageName;
 
+import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -33,9 +34,16 @@ import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeSpec;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.lang.model.element.Modifier;
 import net.kebernet.xddl.Loader;
@@ -47,12 +55,15 @@ import net.kebernet.xddl.model.List;
 import net.kebernet.xddl.model.PatchDelete;
 import net.kebernet.xddl.model.Reference;
 import net.kebernet.xddl.model.Structure;
+import net.kebernet.xddl.model.Utils;
 import net.kebernet.xddl.plugins.Context;
 
 public class StructureMigration {
   private static final String LOCAL = "local";
   private static final String ROOT = "root";
   private static final String CURRENT = "current";
+  private static final int MAX_SWITCH_ENTRIES = 8;
+  private static final int TABLE_CHUNK_SIZE = 8192;
   private final Context ctx;
   private final Structure structure;
   private final String packageName;
@@ -60,32 +71,118 @@ public class StructureMigration {
   private final TypeSpec.Builder typeBuilder;
   private final MethodSpec.Builder applyBuilder;
   private final ArrayList<StructureMigration> nested = new ArrayList<>();
+  private final boolean instrument;
+  /**
+   * When flattening, the migration that owns the generated class. Nested, referenced and list
+   * element structures become private methods of it instead of classes of their own.
+   */
+  private final StructureMigration flatRoot;
+  /** The flattened units of the class by name, only populated on the flat root. */
+  private final LinkedHashMap<String, StructureMigration> flatUnits = new LinkedHashMap<>();
+  /** Prefixes the generated members of a flattened unit so they don't collide in one class. */
+  private final String prefix;
 
   public StructureMigration(Context context, Structure structure, ClassName name) {
+    this(context, structure, name, null);
+  }
+
+  private StructureMigration(
+      Context context, Structure structure, ClassName name, StructureMigration parent) {
     this.ctx = context;
     this.structure = structure;
     this.packageName = resolvePackageName(context) + ".migration";
     this.className = ofNullable(name).orElse(ClassName.get(packageName, structure.getName()));
-    this.typeBuilder = TypeSpec.classBuilder(className).addModifiers(Modifier.PUBLIC);
-    typeBuilder.addSuperinterface(MigrationVisitor.class);
-
-    applyBuilder =
-        MethodSpec.methodBuilder("apply")
-            .addAnnotation(Override.class)
-            .addModifiers(Modifier.PUBLIC)
-            .addParameter(ParameterSpec.builder(ObjectNode.class, ROOT).build())
-            .addParameter(ParameterSpec.builder(JsonNode.class, LOCAL).build());
+    this.instrument = MigratePlugin.isInstrumented(context);
+    if (parent != null) {
+      this.flatRoot = parent.flatRoot;
+      this.typeBuilder = flatRoot.typeBuilder;
+      this.prefix = className.simpleName() + "__";
+      flatRoot.flatUnits.put(className.simpleName(), this);
+      applyBuilder =
+          MethodSpec.methodBuilder(flatApplyName(className))
+              .addModifiers(Modifier.PRIVATE)
+              .addParameter(ParameterSpec.builder(ObjectNode.class, ROOT).build())
+              .addParameter(ParameterSpec.builder(JsonNode.class, LOCAL).build());
+    } else {
+      this.flatRoot = MigratePlugin.isFlattened(context) ? this : null;
+      this.typeBuilder = TypeSpec.classBuilder(className).addModifiers(Modifier.PUBLIC);
+      this.prefix = "";
+      if (flatRoot != null) {
+        flatUnits.put(className.simpleName(), this);
+      }
+      typeBuilder.addSuperinterface(MigrationVisitor.class);
+      applyBuilder =
+          MethodSpec.methodBuilder("apply")
+              .addAnnotation(Override.class)
+              .addModifiers(Modifier.PUBLIC)
+              .addParameter(ParameterSpec.builder(ObjectNode.class, ROOT).build())
+              .addParameter(ParameterSpec.builder(JsonNode.class, LOCAL).build());
+    }
 
     structure.getProperties().forEach(this::visitMigrationSteps);
     structure.getProperties().forEach(this::visitNested);
     structure.getProperties().forEach(this::visitStructureReference);
     structure.getProperties().forEach(this::visitLists);
     structure.getProperties().forEach(this::visitPatchDelete);
+    if (parent != null) {
+      return;
+    }
     typeBuilder.addField(
         FieldSpec.builder(
                 this.className, "INSTANCE", Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
             .initializer("new $T()", className)
             .build());
+    if (!touchesRoot(ctx, structure, new HashSet<>())) {
+      typeBuilder.addMethod(
+          MethodSpec.methodBuilder("touchesRoot")
+              .addAnnotation(Override.class)
+              .addModifiers(Modifier.PUBLIC)
+              .returns(boolean.class)
+              .addStatement("return false")
+              .build());
+    }
+  }
+
+  /**
+   * Checks whether the visitor for a type, or any visitor it calls, reads or writes the document
+   * root. Only ROOT JSON-Path stages and Java stages can do that.
+   */
+  static boolean touchesRoot(Context ctx, BaseType type, Set<String> visitedReferences) {
+    BaseType resolved = type;
+    if (type instanceof Reference) {
+      if (!visitedReferences.add(((Reference) type).getRef())) {
+        return false;
+      }
+      resolved = ctx.resolve(type);
+    }
+    if (stagesTouchRoot(ctx, resolved)) {
+      return true;
+    }
+    if (resolved instanceof Structure) {
+      return Utils.neverNull(((Structure) resolved).getProperties()).stream()
+          .anyMatch(p -> touchesRoot(ctx, p, visitedReferences));
+    }
+    if (resolved instanceof List) {
+      return touchesRoot(ctx, ((List) resolved).getContains(), visitedReferences);
+    }
+    return false;
+  }
+
+  private static boolean stagesTouchRoot(Context ctx, BaseType type) {
+    JsonNode node = (JsonNode) type.ext().get("migration");
+    if (node == null) {
+      return false;
+    }
+    try {
+      return Loader.mapper().treeToValue(node, Migration.class).getStages().stream()
+          .anyMatch(
+              s ->
+                  s instanceof JavaStage
+                      || (s instanceof JsonPathStage
+                          && ((JsonPathStage) s).getStart() == JsonPathStage.Context.ROOT));
+    } catch (JsonProcessingException e) {
+      throw ctx.stateException("Unable to parse migration node: " + e.getMessage(), type);
+    }
   }
 
   private void visitPatchDelete(BaseType baseType) {
@@ -106,10 +203,11 @@ public class StructureMigration {
           "if(local.has($S) && local.get($S) != null)", type.getName(), type.getName());
       BaseType resolvedType = baseType;
       if (baseType instanceof Reference || baseType instanceof Structure) {
+        // The resolved type is renamed below, so it is a copy rather than the shared resolution.
         resolvedType =
             baseType instanceof Structure
                 ? (Structure) baseType
-                : ctx.resolveReference((Reference) baseType)
+                : ctx.resolveReferenceCopy((Reference) baseType)
                     .orElseThrow(() -> ctx.stateException("Unable to resolve reference", baseType));
       }
       applyBuilder.addStatement(
@@ -123,11 +221,18 @@ public class StructureMigration {
         if (resolvedType.getName() == null) {
           resolvedType.setName(type.getName() + "Type");
         }
-        visitListNested(resolvedType);
-        applyBuilder.addStatement(
-            "$T.migrateArrayChildren(root, $L_list, childVisitor)",
-            MigrationVisitor.class,
-            type.getName());
+        if (flatRoot != null) {
+          writeFlatListChildren(
+              type.getName(),
+              (Structure) resolvedType,
+              ClassName.get(this.className.packageName(), resolvedType.getName()));
+        } else {
+          visitListNested(resolvedType);
+          applyBuilder.addStatement(
+              "$T.migrateArrayChildren(root, $L_list, childVisitor)",
+              MigrationVisitor.class,
+              type.getName());
+        }
       } else if (resolvedType.ext().get("migration") != null) {
         applyBuilder.beginControlFlow("for(int i=0; i < $L_list.size(); i++)", type.getName());
         applyBuilder.addStatement(
@@ -137,7 +242,7 @@ public class StructureMigration {
         doMigrationSteps(resolvedType, false);
         applyBuilder.addStatement("current = mapper.createObjectNode()", ObjectNode.class);
         applyBuilder.addStatement("current.set($S, indexedValue)", resolvedType.getName());
-        applyBuilder.addStatement("migrate_$L(root, current)", resolvedType.getName());
+        applyBuilder.addStatement("$L(root, current)", migrateMethod(resolvedType));
         applyBuilder.addStatement(
             "$L_list.set(i, current.get($S))", type.getName(), resolvedType.getName());
         applyBuilder.endControlFlow();
@@ -156,6 +261,9 @@ public class StructureMigration {
       if (resolvedType instanceof Structure) {
         ClassName migrationName =
             ClassName.get(this.className.packageName(), ((Reference) baseType).getRef());
+        if (flatRoot != null) {
+          flatUnit((Structure) resolvedType, migrationName);
+        }
         writeNested(baseType, migrationName);
       }
     }
@@ -182,7 +290,13 @@ public class StructureMigration {
   }
 
   private void visitNested(BaseType baseType) {
-    if (baseType instanceof Structure) {
+    if (baseType instanceof Structure && flatRoot != null) {
+      ClassName unitName =
+          ClassName.get(
+              this.className.packageName(), className.simpleName() + "_" + baseType.getName());
+      flatUnit((Structure) baseType, unitName);
+      writeNested(baseType, unitName);
+    } else if (baseType instanceof Structure) {
       StructureMigration migration =
           new StructureMigration(
               ctx,
@@ -200,22 +314,125 @@ public class StructureMigration {
         type.getName(),
         type.getName(),
         NullNode.class);
-    applyBuilder.addStatement(
-        "$T.INSTANCE.apply(root, ($T) local.get($S))", className, ObjectNode.class, type.getName());
+    if (flatRoot != null) {
+      applyBuilder.addStatement(
+          "$L(root, ($T) local.get($S))",
+          flatApplyName(className),
+          ObjectNode.class,
+          type.getName());
+    } else {
+      applyBuilder.addStatement(
+          "$T.INSTANCE.apply(root, ($T) local.get($S))",
+          className,
+          ObjectNode.class,
+          type.getName());
+    }
     applyBuilder.endControlFlow();
   }
 
+  /**
+   * Gets the flattened unit for a structure, creating it on first use. Units register themselves
+   * before visiting their properties, so self-referencing structures become recursive methods.
+   */
+  private StructureMigration flatUnit(Structure structure, ClassName unitName) {
+    StructureMigration unit = flatRoot.flatUnits.get(unitName.simpleName());
+    return unit != null ? unit : new StructureMigration(ctx, structure, unitName, this);
+  }
+
+  private String flatApplyName(ClassName unitName) {
+    return unitName.equals(flatRoot.className) ? "apply" : "apply_" + unitName.simpleName();
+  }
+
+  /**
+   * Migrates list elements with a flattened unit, calling its method directly rather than through a
+   * MigrationVisitor. This mirrors MigrationVisitor.migrateArrayChildren.
+   */
+  private void writeFlatListChildren(String listName, Structure elementType, ClassName unitName) {
+    flatUnit(elementType, unitName);
+    String method = flatApplyName(unitName);
+    boolean parallel = !touchesRoot(ctx, elementType, new HashSet<>());
+    if (parallel) {
+      applyBuilder
+          .beginControlFlow(
+              "if($L_list.size() > $T.getParallelThreshold())",
+              listName,
+              ArrayMigrationTask.class)
+          .addStatement(
+              "$T.migrateInParallel(root, $L_list, this::$L)",
+              ArrayMigrationTask.class,
+              listName,
+              method)
+          .nextControlFlow("else");
+    }
+    applyBuilder
+        .beginControlFlow("for(int i = 0; i < $L_list.size(); i++)", listName)
+        .addStatement("$T indexedValue = $L_list.get(i)", JsonNode.class, listName)
+        .beginControlFlow("if(indexedValue instanceof $T)", ObjectNode.class)
+        .addStatement("$L(root, indexedValue)", method)
+        .nextControlFlow("else")
+        .addStatement("$T current = $L_list.objectNode()", ObjectNode.class, listName)
+        .addStatement("current.set(\"_\", indexedValue)")
+        .addStatement("$L(root, current)", method)
+        .addStatement("current.remove(\"_\")")
+        .addStatement("$L_list.set(i, current)", listName)
+        .endControlFlow()
+        .endControlFlow();
+    if (parallel) {
+      applyBuilder.endControlFlow();
+    }
+  }
+
+  private String member(String name) {
+    return prefix + name;
+  }
+
+  private String migrateMethod(BaseType type) {
+    return member("migrate_" + type.getName());
+  }
+
   public void write(File directory) {
+    if (flatRoot != null && flatRoot != this) {
+      flatRoot.write(directory);
+      return;
+    }
     nested.forEach(n -> n.write(directory));
-    typeBuilder.addMethod(applyBuilder.build());
+    if (flatRoot != null) {
+      flatUnits.values().forEach(u -> typeBuilder.addMethod(u.applyBuilder.build()));
+    } else {
+      typeBuilder.addMethod(applyBuilder.build());
+    }
     JavaFile file = JavaFile.builder(packageName, typeBuilder.build()).build();
     try {
-      file.writeTo(directory);
+      writeReplacing(file, directory);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
+  /**
+   * Writes a source file through a temporary file and a move. The visitor for a list's element
+   * structure is also written by the structure's own migration, and the plugin's units can run at
+   * the same time, so a file is never written in place.
+   */
+  private static void writeReplacing(JavaFile file, File directory) throws IOException {
+    Path packageDirectory = directory.toPath();
+    for (String part : file.packageName.split("\\.")) {
+      if (!part.isEmpty()) {
+        packageDirectory = packageDirectory.resolve(part);
+      }
+    }
+    Files.createDirectories(packageDirectory);
+    Path target = packageDirectory.resolve(file.typeSpec.name + ".java");
+    Path temp = Files.createTempFile(packageDirectory, file.typeSpec.name, ".tmp");
+    try {
+      Files.write(temp, file.toString().getBytes(StandardCharsets.UTF_8));
+      Files.move(
+          temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
   private void visitMigrationSteps(BaseType baseType) {
     BaseType resolvedType = baseType;
     if (baseType instanceof Reference) {
@@ -232,11 +449,14 @@ public class StructureMigration {
     }
     try {
       MethodSpec.Builder groupMethod =
-          MethodSpec.methodBuilder("migrate_" + type.getName())
-              .addModifiers(Modifier.PUBLIC)
+          MethodSpec.methodBuilder(migrateMethod(type))
+              .addModifiers(prefix.isEmpty() ? Modifier.PUBLIC : Modifier.PRIVATE)
               .addParameter(ParameterSpec.builder(ObjectNode.class, ROOT).build())
               .addParameter(ParameterSpec.builder(JsonNode.class, LOCAL).build());
       groupMethod.addStatement("String fieldName = $S", type.getName());
+      if (instrument) {
+        groupMethod.addStatement("long fieldStart = System.nanoTime()");
+      }
       groupMethod.addStatement(
           "$T current = local.has($S) ? local.get($S) : null",
           JsonNode.class,
@@ -245,6 +465,18 @@ public class StructureMigration {
 
       Migration migration =
           Loader.mapper().treeToValue((JsonNode) type.ext().get("migration"), Migration.class);
+      String cache = migration.isPure() ? cacheField(type, migration) : null;
+      if (cache != null) {
+        groupMethod.addStatement("$T cacheKey = null", JsonNode.class);
+        groupMethod.addStatement(
+            "$T cached = current == null ? null : $L.get(current)", JsonNode.class, cache);
+        groupMethod
+            .beginControlFlow("if(cached != null)")
+            .addStatement("current = cached")
+            .nextControlFlow("else");
+        // Stages may modify the input in place, so the key is copied before they run.
+        groupMethod.addStatement("cacheKey = current == null ? null : current.deepCopy()");
+      }
       if (migration.getOp() == Migration.Operation.MIXIN) {
         groupMethod.addStatement(
             "$T original = $T.nullish(current) ? current : $T.readTree(current.toString())",
@@ -264,22 +496,110 @@ public class StructureMigration {
       }
       AtomicInteger index = new AtomicInteger(0);
       migration.getStages().forEach(s -> s.setIndex(index.getAndIncrement()));
-      migration.getStages().forEach(s -> writeCodeBlock(type, s, groupMethod));
+      StageOptimizer.optimize(migration.getStages())
+          .forEach(s -> writeTimedCodeBlock(type, s, groupMethod));
 
       if (migration.getOp() == Migration.Operation.MIXIN) {
         groupMethod
             .addStatement("$T.mix(original, current)", Mixin.class)
             .addStatement("current = original");
       }
+      if (cache != null) {
+        groupMethod.addStatement("$L.put(cacheKey, current)", cache).endControlFlow();
+      }
       groupMethod.addStatement("(($T) local).set(fieldName, current)", ObjectNode.class);
+      if (instrument) {
+        groupMethod.addStatement(
+            "$L.record(fieldStart)", timerField(type.getName(), type.getName(), null));
+      }
 
       typeBuilder.addMethod(groupMethod.build());
-      if (apply) applyBuilder.addStatement("migrate_$L(root, local)", type.getName());
+      if (apply) applyBuilder.addStatement("$L(root, local)", migrateMethod(type));
     } catch (JsonProcessingException e) {
       throw ctx.stateException("Unable to parse migration node: " + e.getMessage(), type);
     }
   }
 
+  /**
+   * Adds a static {@link MigrationCache} field for a pure field migration and returns the field
+   * name. The cache is keyed on the field value alone, so stages that read other parts of the
+   * document are rejected.
+   */
+  private String cacheField(BaseType type, Migration migration) {
+    migration.getStages().stream()
+        .filter(
+            s ->
+                s instanceof JsonPathStage
+                    && ((JsonPathStage) s).getStart() != JsonPathStage.Context.CURRENT)
+        .findFirst()
+        .ifPresent(
+            s -> {
+              throw ctx.stateException(
+                  "A pure migration can only use JSON-Path stages that start from CURRENT", type);
+            });
+    if (migration.getCacheSize() < 1) {
+      throw ctx.stateException("A pure migration needs a cacheSize of at least 1", type);
+    }
+    String name = member("CACHE_" + type.getName());
+    typeBuilder.addField(
+        FieldSpec.builder(
+                MigrationCache.class, name, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+            .initializer(
+                "$T.cache($S, $L)",
+                MigrationCache.class,
+                className.reflectionName() + "." + type.getName(),
+                migration.getCacheSize())
+            .build());
+    return name;
+  }
+
+  private void writeTimedCodeBlock(BaseType type, Stage stage, MethodSpec.Builder groupsBuilder) {
+    if (!instrument) {
+      writeCodeBlock(type, stage, groupsBuilder);
+      return;
+    }
+    groupsBuilder.addStatement("long stageStart_$L = System.nanoTime()", stage.getIndex());
+    writeCodeBlock(type, stage, groupsBuilder);
+    groupsBuilder.addStatement(
+        "$L.record(stageStart_$L)",
+        timerField(type.getName() + "_stage_" + stage.getIndex(), type.getName(), stage),
+        stage.getIndex());
+  }
+
+  /**
+   * Adds a static {@link StageTimer} field for a field migration, or one of its stages, and returns
+   * the field name.
+   */
+  private String timerField(String suffix, String fieldName, Stage stage) {
+    String name = member("TIMER_" + suffix);
+    String timerName = className.reflectionName() + "." + fieldName;
+    if (stage != null) {
+      timerName += "[" + stage.getIndex() + " " + stageLabel(stage) + "]";
+    }
+    typeBuilder.addField(
+        FieldSpec.builder(StageTimer.class, name, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+            .initializer("$T.timer($S)", MigrationMetrics.class, timerName)
+            .build());
+    return name;
+  }
+
+  static String stageLabel(Stage stage) {
+    if (stage instanceof FusedStringStage) {
+      StringBuilder label = new StringBuilder();
+      for (Stage step : ((FusedStringStage) stage).getSteps()) {
+        label.append(label.length() == 0 ? "" : "+").append(stageLabel(step));
+      }
+      return label.toString();
+    }
+    JsonSubTypes subTypes = Stage.class.getAnnotation(JsonSubTypes.class);
+    for (JsonSubTypes.Type subType : subTypes.value()) {
+      if (subType.value() == stage.getClass()) {
+        return subType.name();
+      }
+    }
+    return stage.getClass().getSimpleName();
+  }
+
   private void writeCodeBlock(BaseType type, Stage stage, MethodSpec.Builder groupsBuilder) {
     if (stage instanceof JsonPathStage) {
       writeJsonPathSteps(type, (JsonPathStage) stage, groupsBuilder);
@@ -294,10 +614,100 @@ public class StructureMigration {
     } else if (stage instanceof CaseStage) {
       writeCaseStage((CaseStage) stage, groupsBuilder);
     } else if (stage instanceof TemplateStage) {
-      writeTemplateStage((TemplateStage) stage, groupsBuilder);
+      writeTemplateStage(type, (TemplateStage) stage, groupsBuilder);
     } else if (stage instanceof JavaStage) {
       writeJavaStage((JavaStage) stage, groupsBuilder);
+    } else if (stage instanceof FusedStringStage) {
+      writeFusedStringStage(type, (FusedStringStage) stage, groupsBuilder);
+    } else if (stage instanceof LookupStage) {
+      writeLookupStage(type, (LookupStage) stage, groupsBuilder);
+    }
+  }
+
+  private void writeFusedStringStage(
+      BaseType type, FusedStringStage stage, MethodSpec.Builder groupsBuilder) {
+    groupsBuilder.beginControlFlow("if(!$T.nullish(current))", MigrationVisitor.class);
+    groupsBuilder.addStatement("String text = current.asText()");
+    for (Stage step : stage.getSteps()) {
+      if (step instanceof RegexStage) {
+        RegexStage regex = (RegexStage) step;
+        if (StageOptimizer.isPlainTextRegex(regex)) {
+          groupsBuilder.addStatement(
+              "text = $T.replaceText(text, $S, $S)",
+              MigrationVisitor.class,
+              regex.getSearch(),
+              regex.getReplace());
+        } else {
+          groupsBuilder.addStatement(
+              "text = $T.replaceRegex(text, $S, $S)",
+              MigrationVisitor.class,
+              escapeSlashes(regex.getSearch()),
+              regex.getReplace());
+        }
+      } else if (step instanceof CaseStage) {
+        CaseStage caseStage = (CaseStage) step;
+        groupsBuilder.addStatement(
+            "text = $T.convertTextCase($T.$L, $T.$L, text)",
+            MigrationVisitor.class,
+            CaseFormat.class,
+            caseStage.getFrom().name(),
+            CaseFormat.class,
+            caseStage.getTo().name());
+      } else if (step instanceof MapStage) {
+        String mapName = writeTextMap(type, (MapStage) step);
+        groupsBuilder.addStatement("text = $L.getOrDefault(text, text)", mapName);
+      }
     }
+    groupsBuilder.addStatement(
+        "current = $T.mapper.getNodeFactory().textNode(text)", MigrationVisitor.class);
+    groupsBuilder.endControlFlow();
+  }
+
+  private String writeTextMap(BaseType type, MapStage stage) {
+    String mapName = member(type.getName() + "_group_" + stage.getIndex() + "_text");
+    ArrayNode pairs = MigrationVisitor.mapper.createArrayNode();
+    Utils.neverNull(stage.getValues())
+        .forEach(v -> pairs.addArray().add(v.getFrom().asText()).add(v.getTo().asText()));
+    typeBuilder.addField(
+        FieldSpec.builder(
+                ParameterizedTypeName.get(HashMap.class, String.class, String.class),
+                mapName,
+                Modifier.STATIC,
+                Modifier.FINAL)
+            .initializer("$T.stringTable($L)", MapTables.class, tableChunks(pairs, stage))
+            .build());
+    return mapName;
+  }
+
+  private void writeLookupStage(
+      BaseType type, LookupStage stage, MethodSpec.Builder groupsBuilder) {
+    if (stage.getFile() == null || stage.getKey() == null) {
+      throw ctx.stateException("A lookup stage needs a file and a key", stage);
+    }
+    String indexName = member(type.getName() + "_group_" + stage.getIndex() + "_lookup");
+    typeBuilder.addField(
+        FieldSpec.builder(LookupIndex.class, indexName, Modifier.STATIC, Modifier.FINAL)
+            .initializer(
+                "$T.open($S, $S, $S, $S)",
+                LookupIndex.class,
+                stage.getFile(),
+                stage.getFormat(),
+                stage.getKey(),
+                stage.getValue())
+            .build());
+    groupsBuilder
+        .beginControlFlow("if(!$T.nullish(current))", MigrationVisitor.class)
+        .addStatement("$T found = $L.lookup(current.asText())", JsonNode.class, indexName);
+    if (stage.getDefaultValue() != null) {
+      groupsBuilder.addStatement(
+          "current = found != null ? found : $T.readTree($S)",
+          MigrationVisitor.class,
+          stage.getDefaultValue().toString());
+    } else {
+      groupsBuilder.beginControlFlow("if(found != null)").addStatement("current = found");
+      groupsBuilder.endControlFlow();
+    }
+    groupsBuilder.endControlFlow();
   }
 
   private void writeJavaStage(JavaStage stage, MethodSpec.Builder groupsBuilder) {
@@ -313,12 +723,33 @@ public class StructureMigration {
     }
   }
 
-  private void writeTemplateStage(TemplateStage stage, MethodSpec.Builder groupsBuilder) {
-    groupsBuilder.addStatement(
-        "current = new $T(current).insertInto($T.readTree($S))",
-        Template.class,
-        MigrationVisitor.class,
-        stage.getInsertInto().toString());
+  private void writeTemplateStage(
+      BaseType type, TemplateStage stage, MethodSpec.Builder groupsBuilder) {
+    String skeletonName = member(type.getName() + "_group_" + stage.getIndex() + "_template");
+    JsonNode template = ofNullable(stage.getInsertInto()).orElse(NullNode.getInstance());
+    typeBuilder.addField(
+        FieldSpec.builder(JsonNode.class, skeletonName, Modifier.STATIC, Modifier.FINAL)
+            .initializer(
+                "$T.readTree($S)",
+                MigrationVisitor.class,
+                Template.skeleton(template).toString())
+            .build());
+    groupsBuilder.addCode("{\n$>");
+    groupsBuilder.addStatement("$T skeleton = $L.deepCopy()", JsonNode.class, skeletonName);
+    for (java.util.List<Object> slot : Template.slots(template)) {
+      CodeBlock.Builder parent = CodeBlock.builder().add("skeleton");
+      for (Object step : slot.subList(0, slot.size() - 1)) {
+        parent.add(step instanceof Integer ? ".get($L)" : ".get($S)", step);
+      }
+      Object last = slot.get(slot.size() - 1);
+      groupsBuilder.addStatement(
+          last instanceof Integer ? "(($T) $L).set($L, current)" : "(($T) $L).set($S, current)",
+          last instanceof Integer ? ArrayNode.class : ObjectNode.class,
+          parent.build(),
+          last);
+    }
+    groupsBuilder.addStatement("current = skeleton");
+    groupsBuilder.addCode("$<}\n");
   }
 
   private void writeCaseStage(CaseStage stage, MethodSpec.Builder groupsBuilder) {
@@ -354,41 +785,122 @@ public class StructureMigration {
   }
 
   private void writeMapStage(BaseType type, MapStage stage, MethodSpec.Builder groupsBuilder) {
+    String mapName = member(type.getName() + "_group_" + stage.getIndex());
+    // Later entries win, as they did when the table was filled with put().
+    LinkedHashMap<JsonNode, JsonNode> entries = new LinkedHashMap<>();
+    Utils.neverNull(stage.getValues())
+        .forEach(
+            v ->
+                entries.put(
+                    ofNullable(v.getFrom()).orElse(NullNode.getInstance()),
+                    ofNullable(v.getTo()).orElse(NullNode.getInstance())));
+    boolean textKeys = entries.keySet().stream().allMatch(JsonNode::isTextual);
+    boolean intKeys = entries.keySet().stream().allMatch(JsonNode::isInt);
+    // Container values are shared by every document, so each match gets its own copy.
+    String copy =
+        entries.values().stream().anyMatch(JsonNode::isContainerNode) ? ".deepCopy()" : "";
+
+    if (textKeys && !entries.isEmpty() && entries.size() <= MAX_SWITCH_ENTRIES) {
+      writeMapSwitch(mapName, entries, stage);
+      groupsBuilder
+          .beginControlFlow("if(current != null && current.isTextual())")
+          .addStatement("$T mapped = lookup_$L(current.textValue())", JsonNode.class, mapName)
+          .beginControlFlow("if(mapped != null)")
+          .addStatement("current = mapped$L", copy)
+          .endControlFlow()
+          .endControlFlow();
+      return;
+    }
 
-    String mapName = type.getName() + "_group_" + stage.getIndex();
+    ArrayNode pairs = MigrationVisitor.mapper.createArrayNode();
+    entries.forEach((from, to) -> pairs.addArray().add(from).add(to));
+    CodeBlock chunks = tableChunks(pairs, stage);
+    String guard;
+    String key;
+    if (textKeys) {
+      typeBuilder.addField(
+          FieldSpec.builder(
+                  ParameterizedTypeName.get(HashMap.class, String.class, JsonNode.class),
+                  mapName,
+                  Modifier.STATIC,
+                  Modifier.FINAL)
+              .initializer("$T.textTable($L)", MapTables.class, chunks)
+              .build());
+      guard = "current != null && current.isTextual()";
+      key = "current.textValue()";
+    } else if (intKeys) {
+      typeBuilder.addField(
+          FieldSpec.builder(IntJsonNodeMap.class, mapName, Modifier.STATIC, Modifier.FINAL)
+              .initializer("$T.intTable($L)", MapTables.class, chunks)
+              .build());
+      guard = "current != null && current.isInt()";
+      key = "current.intValue()";
+    } else {
+      typeBuilder.addField(
+          FieldSpec.builder(
+                  ParameterizedTypeName.get(HashMap.class, JsonNode.class, JsonNode.class),
+                  mapName,
+                  Modifier.STATIC,
+                  Modifier.FINAL)
+              .initializer("$T.nodeTable($L)", MapTables.class, chunks)
+              .build());
+      guard = "current != null";
+      key = "current";
+    }
+    groupsBuilder
+        .beginControlFlow("if($L)", guard)
+        .addStatement("$T mapped = $L.get($L)", JsonNode.class, mapName, key)
+        .beginControlFlow("if(mapped != null)")
+        .addStatement("current = mapped$L", copy)
+        .endControlFlow()
+        .endControlFlow();
+  }
 
+  private void writeMapSwitch(
+      String mapName, LinkedHashMap<JsonNode, JsonNode> entries, MapStage stage) {
+    String valuesName = mapName + "_values";
+    ArrayNode values = MigrationVisitor.mapper.createArrayNode();
+    entries.values().forEach(values::add);
     typeBuilder.addField(
-        FieldSpec.builder(
-                ParameterizedTypeName.get(HashMap.class, JsonNode.class, JsonNode.class),
-                mapName,
-                Modifier.STATIC,
-                Modifier.FINAL)
-            .initializer("new $T<>()", HashMap.class)
+        FieldSpec.builder(JsonNode[].class, valuesName, Modifier.STATIC, Modifier.FINAL)
+            .initializer("$T.values($L)", MapTables.class, tableChunks(values, stage))
             .build());
-    CodeBlock.Builder staticBlock = CodeBlock.builder();
-    stage
-        .getValues()
-        .forEach(
-            v -> {
-              try {
-                staticBlock.addStatement(
-                    "$L.put( $T.readTree($S), $T.readTree($S))",
-                    mapName,
-                    MigrationVisitor.class,
-                    ctx.getMapper().writeValueAsString(v.getFrom()),
-                    MigrationVisitor.class,
-                    ctx.getMapper().writeValueAsString(v.getTo()));
-              } catch (JsonProcessingException e) {
-                throw ctx.stateException("Couldn't serialize ", v);
-              }
-            });
-    typeBuilder.addStaticBlock(staticBlock.build());
+    MethodSpec.Builder lookup =
+        MethodSpec.methodBuilder("lookup_" + mapName)
+            .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+            .returns(JsonNode.class)
+            .addParameter(String.class, "key")
+            .beginControlFlow("switch(key)");
+    int index = 0;
+    for (JsonNode from : entries.keySet()) {
+      lookup.addStatement("case $S: return $L[$L]", from.textValue(), valuesName, index++);
+    }
+    lookup.addStatement("default: return null").endControlFlow();
+    typeBuilder.addMethod(lookup.build());
+  }
 
-    groupsBuilder
-        .beginControlFlow("if(current != null)")
-        .addStatement(
-            "current = $L.containsKey(current) ? $L.get(current) : current", mapName, mapName)
-        .endControlFlow();
+  /**
+   * Writes a table as JSON string constants, split so that no single constant comes near the class
+   * file limit of 64k bytes.
+   */
+  private CodeBlock tableChunks(JsonNode table, Object offending) {
+    String json;
+    try {
+      json = MigrationVisitor.mapper.writeValueAsString(table);
+    } catch (JsonProcessingException e) {
+      throw ctx.stateException("Couldn't serialize ", offending);
+    }
+    ArrayList<CodeBlock> chunks = new ArrayList<>();
+    int start = 0;
+    do {
+      int end = Math.min(json.length(), start + TABLE_CHUNK_SIZE);
+      if (end < json.length() && Character.isHighSurrogate(json.charAt(end - 1))) {
+        end--;
+      }
+      chunks.add(CodeBlock.of("$S", json.substring(start, end)));
+      start = end;
+    } while (start < json.length());
+    return CodeBlock.join(chunks, ",\n");
   }
 
   private void writeRegExStage(RegexStage stage, MethodSpec.Builder groupsBuilder) {
@@ -437,9 +949,10 @@ public class StructureMigration {
                 MigrationVisitor.class,
                 step));
 
+    String methodName = migrateMethod(type) + "_" + group.getIndex();
     MethodSpec.Builder migrateMethod =
-        MethodSpec.methodBuilder("migrate_" + type.getName() + "_" + group.getIndex())
-            .addModifiers(Modifier.PUBLIC)
+        MethodSpec.methodBuilder(methodName)
+            .addModifiers(prefix.isEmpty() ? Modifier.PUBLIC : Modifier.PRIVATE)
             .addParameter(ParameterSpec.builder(ObjectNode.class, ROOT).build())
             .addParameter(ParameterSpec.builder(JsonNode.class, LOCAL).build())
             .addParameter(ParameterSpec.builder(JsonNode.class, CURRENT).build())
@@ -448,7 +961,6 @@ public class StructureMigration {
     migrateMethod.addCode(b.build());
     migrateMethod.addStatement("return result.orElse(null)");
     typeBuilder.addMethod(migrateMethod.build());
-    groupBuilder.addStatement(
-        "current = migrate_$L_$L(root, local, current)", type.getName(), group.getIndex());
+    groupBuilder.addStatement("current = $L(root, local, current)", methodName);
   }
 }
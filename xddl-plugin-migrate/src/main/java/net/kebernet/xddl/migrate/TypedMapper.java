@@ -0,0 +1,311 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import static net.kebernet.xddl.java.Resolver.resolvePackageName;
+import static net.kebernet.xddl.java.StructureClass.createGetterName;
+import static net.kebernet.xddl.java.StructureClass.createSetterName;
+import static net.kebernet.xddl.model.Utils.neverNull;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import javax.lang.model.element.Modifier;
+import net.kebernet.xddl.java.StructureClass;
+import net.kebernet.xddl.model.BaseType;
+import net.kebernet.xddl.model.List;
+import net.kebernet.xddl.model.PatchDelete;
+import net.kebernet.xddl.model.Reference;
+import net.kebernet.xddl.model.Structure;
+import net.kebernet.xddl.plugins.Context;
+
+/**
+ * Generates a mapper from the Java plugin's classes for a structure in the previous glide version
+ * to the classes for this version, so in-memory objects can be upgraded without a JSON round trip.
+ * Unchanged fields are copied, referenced and nested structures are mapped by their own mappers,
+ * and only fields with a migration, or whose Java type changed, are converted through the visitor.
+ */
+class TypedMapper {
+  private static final String MAPPER = "MAPPER";
+  private final Context ctx;
+  private final Context previous;
+  private final String migrationPackage;
+  private final TypeSpec.Builder typeBuilder;
+
+  TypedMapper(
+      Context context, Context previous, Structure structure, Structure previousStructure) {
+    this.ctx = context;
+    this.previous = previous;
+    this.migrationPackage = resolvePackageName(context) + ".migration";
+    ClassName from = ClassName.get(resolvePackageName(previous), structure.getName());
+    ClassName to = ClassName.get(resolvePackageName(context), structure.getName());
+    ClassName visitor = ClassName.get(migrationPackage, structure.getName());
+    this.typeBuilder =
+        TypeSpec.classBuilder(mapperName(structure.getName()))
+            .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+            .addJavadoc("Maps {@link $T} to {@link $T}.\n", from, to)
+            .addField(
+                FieldSpec.builder(
+                        ObjectMapper.class,
+                        MAPPER,
+                        Modifier.PRIVATE,
+                        Modifier.STATIC,
+                        Modifier.FINAL)
+                    .initializer(
+                        "$T.mapper.copy().findAndRegisterModules()"
+                            + ".disable($T.WRITE_DATES_AS_TIMESTAMPS)"
+                            + ".disable($T.FAIL_ON_UNKNOWN_PROPERTIES)",
+                        MigrationVisitor.class,
+                        SerializationFeature.class,
+                        DeserializationFeature.class)
+                    .build())
+            .addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build());
+
+    MethodSpec.Builder map =
+        MethodSpec.methodBuilder("map")
+            .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+            .addJavadoc("@param from the previous version, may be null\n")
+            .addJavadoc("@return the migrated value, or null\n")
+            .returns(to)
+            .addParameter(from, "from")
+            .addStatement("if(from == null) return null");
+    if (StructureMigration.touchesRoot(context, structure, new HashSet<>())) {
+      // ROOT stages can read anywhere in the document, so only the visitor can migrate it.
+      map.addStatement("$T tree = $L.valueToTree(from)", ObjectNode.class, MAPPER)
+          .addStatement("$T.INSTANCE.apply(tree, tree)", visitor)
+          .addStatement("return $L.convertValue(tree, $T.class)", MAPPER, to);
+    } else {
+      writeFields(
+          map,
+          structure,
+          previousStructure,
+          new StructureClass(context, structure).getFields(),
+          new StructureClass(previous, previousStructure).getFields(),
+          visitor,
+          to);
+      map.addStatement("return to");
+    }
+    typeBuilder.addMethod(map.build());
+  }
+
+  private ClassName mapperName(String structureName) {
+    return ClassName.get(migrationPackage, structureName + "Mapper");
+  }
+
+  private void writeFields(
+      MethodSpec.Builder method,
+      Structure structure,
+      Structure previousStructure,
+      Map<String, FieldSpec> fields,
+      Map<String, FieldSpec> previousFields,
+      ClassName visitor,
+      TypeName to) {
+    method.addStatement("$T to = new $T()", to, to);
+    LinkedHashMap<String, FieldSpec> converted = new LinkedHashMap<>();
+    boolean fieldMigrationsOnly = true;
+    for (BaseType property : neverNull(structure.getProperties())) {
+      if (property instanceof PatchDelete) {
+        continue;
+      }
+      FieldSpec field = fields.get(property.getName());
+      FieldSpec previousField = previousFields.get(property.getName());
+      BaseType resolved = ctx.resolve(property);
+      if (resolved.ext().containsKey("migration")) {
+        converted.put(property.getName(), field);
+        continue;
+      }
+      if (previousField == null) {
+        // A new field without a migration keeps its default, as it would after the visitor.
+        continue;
+      }
+      CodeBlock value =
+          copy(
+              structure,
+              property,
+              resolved,
+              findProperty(previousStructure, property.getName()),
+              field,
+              previousField);
+      if (value == null) {
+        converted.put(property.getName(), field);
+        fieldMigrationsOnly = false;
+      } else {
+        method.addStatement("to.$L($L)", createSetterName(field), value);
+      }
+    }
+    if (!converted.isEmpty()) {
+      method.addStatement("$T migrated = $L.valueToTree(from)", ObjectNode.class, MAPPER);
+      if (fieldMigrationsOnly) {
+        converted
+            .keySet()
+            .forEach(
+                name ->
+                    method.addStatement(
+                        "$T.INSTANCE.migrate_$L(migrated, migrated)", visitor, name));
+      } else {
+        method.addStatement("$T.INSTANCE.apply(migrated, migrated)", visitor);
+      }
+      converted.forEach(
+          (name, field) ->
+              method
+                  .beginControlFlow(
+                      field.type.isPrimitive()
+                          ? "if(migrated.hasNonNull($S))"
+                          : "if(migrated.has($S))",
+                      name)
+                  .addStatement(
+                      "to.$L($L.convertValue(migrated.get($S), new $T<$T>() {}))",
+                      createSetterName(field),
+                      MAPPER,
+                      name,
+                      TypeReference.class,
+                      field.type.box())
+                  .endControlFlow());
+    }
+  }
+
+  /**
+   * Returns an expression that carries a field over without going through JSON, or null if the
+   * field has to be converted.
+   */
+  private CodeBlock copy(
+      Structure owner,
+      BaseType property,
+      BaseType resolved,
+      BaseType previousProperty,
+      FieldSpec field,
+      FieldSpec previousField) {
+    String getter = createGetterName(previousField);
+    if (resolved instanceof List) {
+      if (!(previousProperty instanceof List)
+          || !(field.type instanceof ParameterizedTypeName)
+          || !((ParameterizedTypeName) field.type)
+              .rawType
+              .equals(ClassName.get(java.util.List.class))
+          || ctx.resolve(((List) resolved).getContains()).ext().containsKey("migration")) {
+        return null;
+      }
+      if (field.type.equals(previousField.type)) {
+        return CodeBlock.of(
+            "from.$L() == null ? null : new $T<>(from.$L())", getter, ArrayList.class, getter);
+      }
+      return structureReference(
+              ((List) resolved).getContains(), ((List) previousProperty).getContains())
+          .map(
+              ref ->
+                  CodeBlock.of(
+                      "from.$L() == null ? null"
+                          + " : from.$L().stream().map($T::map).collect($T.toList())",
+                      getter,
+                      getter,
+                      mapperName(ref),
+                      Collectors.class))
+          .orElse(null);
+    }
+    if (field.type.equals(previousField.type)) {
+      return field.type instanceof ArrayTypeName
+          ? CodeBlock.of("from.$L() == null ? null : from.$L().clone()", getter, getter)
+          : CodeBlock.of("from.$L()", getter);
+    }
+    Optional<String> reference = structureReference(property, previousProperty);
+    if (reference.isPresent()) {
+      return CodeBlock.of("$T.map(from.$L())", mapperName(reference.get()), getter);
+    }
+    if (property instanceof Structure && previousProperty instanceof Structure) {
+      return CodeBlock.of(
+          "$L(from.$L())",
+          writeNested(
+              owner, (Structure) property, (Structure) previousProperty, field, previousField),
+          getter);
+    }
+    return null;
+  }
+
+  /** The structure both versions of a property refer to, if it has a mapper. */
+  private Optional<String> structureReference(BaseType property, BaseType previousProperty) {
+    if (!(property instanceof Reference) || !(previousProperty instanceof Reference)) {
+      return Optional.empty();
+    }
+    String ref = ((Reference) property).getRef();
+    if (!ref.equals(((Reference) previousProperty).getRef())
+        || !ctx.pointsToStructure((Reference) property)
+        || !previous.pointsToStructure((Reference) previousProperty)) {
+      return Optional.empty();
+    }
+    return Optional.of(ref);
+  }
+
+  private String writeNested(
+      Structure owner,
+      Structure nested,
+      Structure previousNested,
+      FieldSpec field,
+      FieldSpec previousField) {
+    String methodName = "map_" + owner.getName() + "_" + nested.getName();
+    MethodSpec.Builder method =
+        MethodSpec.methodBuilder(methodName)
+            .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+            .returns(field.type)
+            .addParameter(previousField.type, "from")
+            .addStatement("if(from == null) return null");
+    writeFields(
+        method,
+        nested,
+        previousNested,
+        new StructureClass(ctx, nested, (ClassName) field.type).getFields(),
+        new StructureClass(previous, previousNested, (ClassName) previousField.type).getFields(),
+        ClassName.get(migrationPackage, owner.getName() + "_" + nested.getName()),
+        field.type);
+    typeBuilder.addMethod(method.addStatement("return to").build());
+    return methodName;
+  }
+
+  private static BaseType findProperty(Structure structure, String name) {
+    return neverNull(structure.getProperties()).stream()
+        .filter(p -> !(p instanceof PatchDelete) && Objects.equals(p.getName(), name))
+        .findFirst()
+        .orElse(null);
+  }
+
+  public void write(File directory) {
+    JavaFile file = JavaFile.builder(migrationPackage, typeBuilder.build()).build();
+    try {
+      file.writeTo(directory);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
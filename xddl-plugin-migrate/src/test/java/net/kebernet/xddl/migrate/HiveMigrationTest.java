@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import net.kebernet.xddl.Loader;
+import net.kebernet.xddl.migrate.format.CaseFormat;
+import net.kebernet.xddl.model.List;
+import net.kebernet.xddl.plugins.Context;
+import org.junit.Test;
+
+public class HiveMigrationTest {
+
+  private static Context read(String name) {
+    return new Context(
+        Loader.mapper(),
+        Loader.builder().main(new File("src/test/resources/" + name)).build().read());
+  }
+
+  @Test
+  public void testStatement() {
+    HiveMigration migration =
+        new HiveMigration(read("hiveCurrent.xddl.json"), read("hivePrevious.xddl.json"));
+    String statement = migration.statement();
+
+    assertThat(migration.getUnsupported()).isEmpty();
+    assertThat(statement)
+        .startsWith(
+            "-- Migrates sales_v1 (1.0) to sales_v2 (1.1)\n"
+                + "SET hive.exec.dynamic.partition.mode=nonstrict;\n"
+                + "INSERT OVERWRITE TABLE sales_v2 PARTITION (dt)\n"
+                + "SELECT\n"
+                + "  CAST(src.`id` AS bigint) AS `id`,\n");
+    assertThat(statement)
+        .contains(
+            "CASE WHEN src.`status` = 'o' THEN 'open' WHEN src.`status` = 'c' THEN 'closed'"
+                + " ELSE src.`status` END");
+    assertThat(statement)
+        .contains(
+            "  CAST(regexp_replace(src.`region`, '^us-(.*)$', 'US-$1') AS varchar(255))"
+                + " AS `region`,\n");
+    assertThat(statement).contains("  CAST('web' AS varchar(255)) AS `channel`,\n");
+    assertThat(statement).contains("  src.`amount` AS `amount`,\n");
+    assertThat(statement).contains("  CAST(NULL AS varchar(255)) AS `note`,\n");
+    assertThat(statement)
+        .contains(
+            "  CASE WHEN src.`customer` IS NULL THEN NULL ELSE named_struct("
+                + "'name', src.`customer`.`fullName`, 'zip', src.`customer`.`zip`) END"
+                + " AS `customer`,\n");
+    assertThat(statement).endsWith("  src.dt\nFROM sales_v1 src;\n");
+  }
+
+  @Test
+  public void testUnsupportedStagesAreListed() {
+    HiveMigration migration =
+        new HiveMigration(read("hiveUnsupported.xddl.json"), read("hivePrevious.xddl.json"));
+    String statement = migration.statement();
+
+    assertThat(migration.getUnsupported()).containsExactly("region: stage 0 (template)");
+    assertThat(statement).contains("--   region: stage 0 (template)\n");
+    assertThat(statement).doesNotContain("INSERT OVERWRITE");
+  }
+
+  @Test
+  public void testRepeatedStatementsListUnsupportedStagesOnce() {
+    HiveMigration migration =
+        new HiveMigration(read("hiveUnsupported.xddl.json"), read("hivePrevious.xddl.json"));
+    String statement = migration.statement();
+
+    assertThat(migration.statement()).isEqualTo(statement);
+    assertThat(migration.getUnsupported()).containsExactly("region: stage 0 (template)");
+  }
+
+  @Test
+  public void testNestedMigrations() {
+    HiveMigration migration =
+        new HiveMigration(read("hiveNested.xddl.json"), read("hiveNestedPrevious.xddl.json"));
+    String statement = migration.statement();
+
+    assertThat(migration.getUnsupported()).isEmpty();
+    assertThat(statement)
+        .contains(
+            "  CASE WHEN src.`customer` IS NULL THEN NULL ELSE named_struct("
+                + "'name', src.`customer`.`name`, "
+                + "'zip', CAST(regexp_replace(src.`customer`.`zip`, '-.*$', '') AS varchar(255)))"
+                + " END AS `customer`,\n");
+    assertThat(statement)
+        .contains(
+            "  CASE WHEN src.`address` IS NULL THEN NULL ELSE named_struct('city', CAST(CASE"
+                + " WHEN src.`address`.`city` = 'NYC' THEN 'New York' ELSE src.`address`.`city`"
+                + " END AS varchar(255))) END AS `address`,\n");
+    assertThat(statement).contains("  src.`tags` AS `tags`\n");
+  }
+
+  @Test
+  public void testListMemberMigrationsAreListed() throws IOException {
+    Context current = read("hiveNested.xddl.json");
+    List tags = (List) current.entryRefStructure().getProperties().get(3);
+    tags.getContains()
+        .ext()
+        .put(
+            "migration",
+            Loader.mapper().readTree("{\"stages\": [{\"@type\": \"literal\", \"value\": \"x\"}]}"));
+    HiveMigration migration = new HiveMigration(current, read("hiveNestedPrevious.xddl.json"));
+    String statement = migration.statement();
+
+    assertThat(migration.getUnsupported()).containsExactly("tags: migrations inside an ARRAY");
+    assertThat(statement).doesNotContain("INSERT OVERWRITE");
+  }
+
+  @Test
+  public void testConvertCase() {
+    assertThat(HiveMigration.convertCase(CaseFormat.LOWER_SNAKE, CaseFormat.UPPER_SNAKE, "x"))
+        .isEqualTo("upper(regexp_replace(regexp_replace(x, '_', ' '), ' ', '_'))");
+    assertThat(HiveMigration.convertCase(CaseFormat.UPPER_CAMEL, CaseFormat.LOWER_WORDS, "x"))
+        .isEqualTo("lower(regexp_replace(x, '(?<!^)(?=[A-Z])', ' '))");
+    assertThat(HiveMigration.convertCase(CaseFormat.LOWER_CAMEL, CaseFormat.LOWER_CAMEL, "x"))
+        .isEqualTo("x");
+    assertThat(HiveMigration.quote("it's a \\d")).isEqualTo("'it\\'s a \\\\d'");
+  }
+}
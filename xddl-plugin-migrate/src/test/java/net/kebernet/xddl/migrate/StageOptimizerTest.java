@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019, 2020 Robert Cooper, ThoughtWorks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kebernet.xddl.migrate;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.fasterxml.jackson.databind.node.TextNode;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import net.kebernet.xddl.migrate.format.CaseFormat;
+import org.junit.Test;
+
+public class StageOptimizerTest {
+
+  @Test
+  public void literalDropsPriorStages() {
+    List<Stage> result =
+        StageOptimizer.optimize(Arrays.asList(regex("a", "b", 0), literal(1), caseStage(2)));
+    assertThat(result).hasSize(2);
+    assertThat(result.get(0)).isInstanceOf(LiteralStage.class);
+    assertThat(result.get(1)).isInstanceOf(CaseStage.class);
+  }
+
+  @Test
+  public void literalKeepsSideEffects() {
+    JavaStage java = new JavaStage();
+    java.setIndex(1);
+    List<Stage> result =
+        StageOptimizer.optimize(Arrays.asList(regex("a", "b", 0), java, literal(2)));
+    assertThat(result).hasSize(3);
+    assertThat(result.get(1)).isSameInstanceAs(java);
+  }
+
+  @Test
+  public void fusesStringStages() {
+    MapStage map = map("FOO", "bar", 2);
+    List<Stage> result =
+        StageOptimizer.optimize(Arrays.asList(regex("^f", "F", 0), caseStage(1), map));
+    assertThat(result).hasSize(1);
+    FusedStringStage fused = (FusedStringStage) result.get(0);
+    assertThat(fused.getIndex()).isEqualTo(0);
+    assertThat(fused.getSteps()).hasSize(3);
+    assertThat(fused.getSteps().get(2)).isSameInstanceAs(map);
+  }
+
+  @Test
+  public void leadingMapIsNotFused() {
+    List<Stage> result =
+        StageOptimizer.optimize(Arrays.asList(map("FOO", "bar", 0), regex("^f", "F", 1)));
+    assertThat(result).hasSize(2);
+    assertThat(result.get(0)).isInstanceOf(MapStage.class);
+    assertThat(result.get(1)).isInstanceOf(RegexStage.class);
+  }
+
+  @Test
+  public void plainRegexIsFusedAlone() {
+    assertThat(StageOptimizer.optimize(Collections.singletonList(regex("a-b", "c", 0))).get(0))
+        .isInstanceOf(FusedStringStage.class);
+    assertThat(StageOptimizer.optimize(Collections.singletonList(regex("a.b", "c", 0))).get(0))
+        .isInstanceOf(RegexStage.class);
+    assertThat(StageOptimizer.isPlainTextRegex(regex("a", "$1", 0))).isFalse();
+  }
+
+  private static RegexStage regex(String search, String replace, int index) {
+    RegexStage stage = new RegexStage();
+    stage.setSearch(search);
+    stage.setReplace(replace);
+    stage.setIndex(index);
+    return stage;
+  }
+
+  private static CaseStage caseStage(int index) {
+    CaseStage stage = new CaseStage();
+    stage.setFrom(CaseFormat.LOWER_WORDS);
+    stage.setTo(CaseFormat.UPPER_SNAKE);
+    stage.setIndex(index);
+    return stage;
+  }
+
+  private static LiteralStage literal(int index) {
+    LiteralStage stage = new LiteralStage();
+    stage.setValue(TextNode.valueOf("literal"));
+    stage.setIndex(index);
+    return stage;
+  }
+
+  private static MapStage map(String from, String to, int index) {
+    MapStage.NodePair pair = new MapStage.NodePair();
+    pair.setFrom(TextNode.valueOf(from));
+    pair.setTo(TextNode.valueOf(to));
+    MapStage stage = new MapStage();
+    stage.setValues(Collections.singletonList(pair));
+    stage.setIndex(index);
+    return stage;
+  }
+}
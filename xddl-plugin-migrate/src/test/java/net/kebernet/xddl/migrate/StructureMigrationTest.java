@@ -26,10 +26,13 @@ import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import net.kebernet.xddl.Loader;
+import net.kebernet.xddl.java.JavaPlugin;
 import net.kebernet.xddl.java.Resolver;
 import net.kebernet.xddl.javatestutils.JavaTestCompiler;
 import net.kebernet.xddl.model.Specification;
@@ -339,6 +342,45 @@ public class StructureMigrationTest {
     assertThat(node.get("bar").asText()).isEqualTo("baz");
   }
 
+  @Test
+  public void testMapTables() throws Exception {
+    File output = new File("build/test-gen/mapTables");
+    output.mkdirs();
+    Specification spec =
+        Loader.builder()
+            .main(new File("src/test/resources/mapTables.xddl.json"))
+            .scrubPatchesFromBaseline(false)
+            .build()
+            .read();
+    Context ctx = new Context(Loader.mapper(), spec);
+    StructureMigration writer = new StructureMigration(ctx, spec.structures().get(0), null);
+    writer.write(output);
+
+    String packageName = Resolver.resolvePackageName(ctx);
+
+    ClassLoader loader = new JavaTestCompiler(output).compile();
+    MigrationVisitor visitor =
+        (MigrationVisitor) loader.loadClass(packageName + ".migration.Tables").newInstance();
+    ObjectNode node =
+        (ObjectNode)
+            Loader.mapper()
+                .readTree(
+                    StructureMigrationTest.class.getResourceAsStream("/mapTables.sample.json"));
+    visitor.apply(node, node);
+    assertThat(node.get("status").asText()).isEqualTo("S1");
+    assertThat(node.get("code").asText()).isEqualTo("code--3");
+    assertThat(node.get("small").get("nested").asBoolean()).isTrue();
+    assertThat(node.get("mixed").asText()).isEqualTo("string one");
+    assertThat(node.get("missing").asText()).isEqualTo("unknown");
+
+    ObjectNode second = Loader.mapper().createObjectNode();
+    second.put("small", "b");
+    second.put("mixed", 1);
+    visitor.apply(second, second);
+    assertThat(second.get("small")).isNotSameInstanceAs(node.get("small"));
+    assertThat(second.get("mixed").asText()).isEqualTo("one");
+  }
+
   @Test
   public void testMigrateListMembers() throws Exception {
     File output = new File("build/test-gen/listMemberMigrate");
@@ -463,6 +505,234 @@ public class StructureMigrationTest {
     assertThat(node.get("value").asText()).isEqualTo("THIS_IS_A_TEST");
   }
 
+  @Test
+  public void testFusedStages()
+      throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException {
+    File output = new File("build/test-gen/fusedStages");
+    output.mkdirs();
+    Specification spec =
+        Loader.builder()
+            .main(new File("src/test/resources/fusedStages.xddl.json"))
+            .scrubPatchesFromBaseline(false)
+            .build()
+            .read();
+    Context ctx = new Context(Loader.mapper(), spec);
+    StructureMigration writer = new StructureMigration(ctx, spec.structures().get(0), null);
+    writer.write(output);
+
+    String packageName = Resolver.resolvePackageName(ctx);
+
+    ClassLoader loader = new JavaTestCompiler(output).compile();
+    MigrationVisitor visitor =
+        (MigrationVisitor) loader.loadClass(packageName + ".migration.Thing").newInstance();
+
+    ObjectNode node =
+        (ObjectNode)
+            new ObjectMapper()
+                .readTree(
+                    StructureMigrationTest.class.getResourceAsStream("/fusedStages.sample.json"));
+    visitor.apply(node, node);
+    assertThat(node.get("value").asText()).isEqualTo("mapped");
+    assertThat(node.get("constant").asText()).isEqualTo("fixed");
+    assertThat(node.get("missing")).isInstanceOf(NullNode.class);
+  }
+
+  @Test
+  public void testInstrumented()
+      throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException {
+    File output = new File("build/test-gen/instrumented");
+    output.mkdirs();
+    Specification spec =
+        Loader.builder()
+            .main(new File("src/test/resources/instrumented.xddl.json"))
+            .scrubPatchesFromBaseline(false)
+            .build()
+            .read();
+    Context ctx = new Context(Loader.mapper(), spec);
+    StructureMigration writer = new StructureMigration(ctx, spec.structures().get(0), null);
+    writer.write(output);
+
+    String packageName = Resolver.resolvePackageName(ctx);
+
+    ClassLoader loader = new JavaTestCompiler(output).compile();
+    MigrationVisitor visitor =
+        (MigrationVisitor) loader.loadClass(packageName + ".migration.Timed").newInstance();
+
+    ObjectNode node = (ObjectNode) MigrationVisitor.readTree("{\"source\": \"this is a test\"}");
+    visitor.apply(node, node);
+    assertThat(node.get("value").asText()).isEqualTo("THIS_IS_A_TEST");
+    String timer = packageName + ".migration.Timed.value";
+    assertThat(MigrationMetrics.timer(timer).getCount()).isEqualTo(1);
+    assertThat(MigrationMetrics.timer(timer + "[0 jsonp]").getCount()).isEqualTo(1);
+    assertThat(MigrationMetrics.timer(timer + "[1 case]").getCount()).isEqualTo(1);
+    assertThat(MigrationMetrics.table(10)).contains(timer + "[1 case]");
+  }
+
+  @Test
+  public void testFlattened()
+      throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException {
+    File output = new File("build/test-gen/flattened");
+    output.mkdirs();
+    Specification spec =
+        Loader.builder()
+            .main(new File("src/test/resources/flattened.xddl.json"))
+            .scrubPatchesFromBaseline(false)
+            .build()
+            .read();
+    Context ctx = new Context(Loader.mapper(), spec);
+    StructureMigration writer = new StructureMigration(ctx, spec.structures().get(0), null);
+    writer.write(output);
+
+    String packageName = Resolver.resolvePackageName(ctx);
+    File packageDirectory = new File(output, (packageName + ".migration").replace('.', '/'));
+    assertThat(packageDirectory.list()).asList().containsExactly("Tree.java");
+
+    ClassLoader loader = new JavaTestCompiler(output).compile();
+    MigrationVisitor visitor =
+        (MigrationVisitor) loader.loadClass(packageName + ".migration.Tree").newInstance();
+
+    ObjectNode node =
+        (ObjectNode)
+            Loader.mapper()
+                .readTree(
+                    StructureMigrationTest.class.getResourceAsStream("/flattened.sample.json"));
+    visitor.apply(node, node);
+    assertThat(node.get("label").asText()).isEqualTo("ROOT_NODE");
+    assertThat(node.get("meta").get("label").asText()).isEqualTo("meta");
+    assertThat(node.get("tags").get(0).get("label").asText()).isEqualTo("bbb");
+    JsonNode child = node.get("children").get(0);
+    assertThat(child.get("label").asText()).isEqualTo("CHILD_ONE");
+    assertThat(child.get("tags").get(0).get("label").asText()).isEqualTo("bb");
+    assertThat(child.get("children").get(0).get("label").asText()).isEqualTo("GRAND_CHILD");
+    assertThat(visitor.touchesRoot()).isFalse();
+  }
+
+  @Test
+  public void testPureMigrationCache()
+      throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException {
+    File output = new File("build/test-gen/pure");
+    output.mkdirs();
+    Specification spec =
+        Loader.builder()
+            .main(new File("src/test/resources/pure.xddl.json"))
+            .scrubPatchesFromBaseline(false)
+            .build()
+            .read();
+    Context ctx = new Context(Loader.mapper(), spec);
+    StructureMigration writer = new StructureMigration(ctx, spec.structures().get(0), null);
+    writer.write(output);
+
+    String packageName = Resolver.resolvePackageName(ctx);
+
+    ClassLoader loader = new JavaTestCompiler(output).compile();
+    MigrationVisitor visitor =
+        (MigrationVisitor) loader.loadClass(packageName + ".migration.Cached").newInstance();
+
+    ObjectNode first = (ObjectNode) MigrationVisitor.readTree("{\"status\": \"open\"}");
+    ObjectNode second = (ObjectNode) MigrationVisitor.readTree("{\"status\": \"open\"}");
+    ObjectNode third = (ObjectNode) MigrationVisitor.readTree("{\"status\": \"closed\"}");
+    visitor.apply(first, first);
+    visitor.apply(second, second);
+    visitor.apply(third, third);
+
+    assertThat(first.get("status").get("value").asText()).isEqualTo("status: open");
+    assertThat(second.get("status")).isEqualTo(first.get("status"));
+    assertThat(second.get("status")).isNotSameInstanceAs(first.get("status"));
+    assertThat(third.get("status").get("value").asText()).isEqualTo("status: closed");
+    MigrationCache cache = MigrationCache.cache(packageName + ".migration.Cached.status", 16);
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertThat(cache.getMisses()).isEqualTo(2);
+  }
+
+  @Test
+  public void testPureMigrationCachePerVersion()
+      throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException {
+    File output = new File("build/test-gen/pureVersions");
+    output.mkdirs();
+    List<String> packages = new ArrayList<>();
+    for (String version : Arrays.asList("2.0", "3.0")) {
+      Specification spec =
+          Loader.builder()
+              .main(new File("src/test/resources/pure.xddl.json"))
+              .scrubPatchesFromBaseline(false)
+              .build()
+              .read();
+      spec.setVersion(version);
+      // Each version formats the same field differently.
+      ((ObjectNode)
+              spec.structures()
+                  .get(0)
+                  .getProperties()
+                  .get(0)
+                  .ext()
+                  .get("migration")
+                  .get("stages")
+                  .get(0))
+          .put("replace", "v" + version + ": $1");
+      Context ctx = new Context(Loader.mapper(), spec);
+      new StructureMigration(ctx, spec.structures().get(0), null).write(output);
+      packages.add(Resolver.resolvePackageName(ctx));
+    }
+
+    // Both versions are loaded together, as powerglide does.
+    ClassLoader loader = new JavaTestCompiler(output).compile();
+    for (int i = 0; i < packages.size(); i++) {
+      MigrationVisitor visitor =
+          (MigrationVisitor)
+              loader.loadClass(packages.get(i) + ".migration.Cached").newInstance();
+      ObjectNode node = (ObjectNode) MigrationVisitor.readTree("{\"status\": \"open\"}");
+      visitor.apply(node, node);
+      assertThat(node.get("status").get("value").asText())
+          .isEqualTo("v" + (i == 0 ? "2.0" : "3.0") + ": open");
+    }
+  }
+
+  @Test
+  public void testLookup()
+      throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException {
+    File output = new File("build/test-gen/lookup");
+    output.mkdirs();
+    Specification spec =
+        Loader.builder()
+            .main(new File("src/test/resources/lookup.xddl.json"))
+            .scrubPatchesFromBaseline(false)
+            .build()
+            .read();
+    Context ctx = new Context(Loader.mapper(), spec);
+    StructureMigration writer = new StructureMigration(ctx, spec.structures().get(0), null);
+    writer.write(output);
+
+    String packageName = Resolver.resolvePackageName(ctx);
+
+    ClassLoader loader = new JavaTestCompiler(output).compile();
+    MigrationVisitor visitor =
+        (MigrationVisitor) loader.loadClass(packageName + ".migration.Store").newInstance();
+
+    ObjectNode known = (ObjectNode) MigrationVisitor.readTree("{\"storeId\": 1}");
+    ObjectNode unknown = (ObjectNode) MigrationVisitor.readTree("{\"storeId\": 7}");
+    visitor.apply(known, known);
+    visitor.apply(unknown, unknown);
+
+    assertThat(known.get("region").asText()).isEqualTo("North");
+    assertThat(known.get("storeId").get("name").asText()).isEqualTo("Big, Store");
+    assertThat(unknown.get("region").asText()).isEqualTo("Unknown");
+    assertThat(unknown.get("storeId").asInt()).isEqualTo(7);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPureMigrationRejectsLocalJsonPath() {
+    File output = new File("build/test-gen/pureLocal");
+    output.mkdirs();
+    Specification spec =
+        Loader.builder()
+            .main(new File("src/test/resources/pureLocal.xddl.json"))
+            .scrubPatchesFromBaseline(false)
+            .build()
+            .read();
+    Context ctx = new Context(Loader.mapper(), spec);
+    new StructureMigration(ctx, spec.structures().get(0), null);
+  }
+
   @Test
   public void testInsertInto()
       throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException {
@@ -497,6 +767,16 @@ public class StructureMigrationTest {
                     + "                    \"foo\": \"bar\",\n"
                     + "                    \"newVal\": \"oldValue\"\n"
                     + "                  }"));
+    assertThat(node.get("nested"))
+        .isEqualTo(
+            MigrationVisitor.mapper.readTree(
+                "{\"wrapper\":[{\"kind\":\"first\",\"value\":\"n\"},"
+                    + "{\"kind\":\"second\",\"value\":\"n\"}],\"last\":\"n\"}"));
+
+    ObjectNode second = (ObjectNode) new ObjectMapper().readTree("{\"nested\":\"again\"}");
+    visitor.apply(second, second);
+    assertThat(second.get("nested").get("last").asText()).isEqualTo("again");
+    assertThat(node.get("nested").get("last").asText()).isEqualTo("n");
   }
 
   @Test
@@ -632,4 +912,62 @@ public class StructureMigrationTest {
     StructureMigration writer = new StructureMigration(ctx, spec.structures().get(0), null);
     writer.write(output);
   }
+
+  @Test
+  public void testTypedMappers() throws IOException, ReflectiveOperationException {
+    File output = new File("build/test-gen/typed");
+    output.mkdirs();
+    File previousFile = new File("src/test/resources/typedPrevious.xddl.json");
+    File currentFile = new File("src/test/resources/typedCurrent.xddl.json");
+    Context previous =
+        new Context(Loader.mapper(), Loader.builder().main(previousFile).build().read());
+    Context current =
+        new Context(Loader.mapper(), Loader.builder().main(currentFile).build().read());
+    current.setSpecificationFile(currentFile);
+    new JavaPlugin().generateArtifacts(previous, output);
+    new JavaPlugin().generateArtifacts(current, output);
+    new MigratePlugin().generateArtifacts(previous, output);
+    new MigratePlugin().generateArtifacts(current, output);
+
+    ClassLoader loader = new JavaTestCompiler(output).compile();
+    Class<?> orderClass = loader.loadClass("net.kebernet.xddl.typed.v1_0.Order");
+    Class<?> customerClass = loader.loadClass("net.kebernet.xddl.typed.v1_0.Customer");
+    Class<?> addressClass = loader.loadClass("net.kebernet.xddl.typed.v1_0.Order$AddressType");
+    Object customer = customerClass.newInstance();
+    customerClass.getMethod("setName", String.class).invoke(customer, "Ada");
+    Object address = addressClass.newInstance();
+    addressClass.getMethod("setStreet", String.class).invoke(address, "Main St");
+    List<String> tags = Arrays.asList("a", "b");
+    Object order = orderClass.newInstance();
+    orderClass.getMethod("setId", Integer.class).invoke(order, 7);
+    orderClass.getMethod("setStatus", String.class).invoke(order, "in progress");
+    orderClass.getMethod("setTags", List.class).invoke(order, tags);
+    orderClass.getMethod("setCustomer", customerClass).invoke(order, customer);
+    orderClass.getMethod("setAddress", addressClass).invoke(order, address);
+
+    Method map =
+        loader
+            .loadClass("net.kebernet.xddl.typed.v1_1.migration.OrderMapper")
+            .getMethod("map", orderClass);
+    Object mapped = map.invoke(null, order);
+
+    assertThat(mapped.getClass().getName()).isEqualTo("net.kebernet.xddl.typed.v1_1.Order");
+    assertThat(invoke(mapped, "getId")).isEqualTo(7L);
+    assertThat(invoke(mapped, "getStatus")).isEqualTo("IN_PROGRESS");
+    assertThat(invoke(mapped, "getTags")).isEqualTo(tags);
+    assertThat(invoke(mapped, "getTags")).isNotSameInstanceAs(tags);
+    Object mappedCustomer = invoke(mapped, "getCustomer");
+    assertThat(invoke(mappedCustomer, "getName")).isEqualTo("Ada");
+    assertThat(invoke(mappedCustomer, "getEmail")).isNull();
+    Object mappedAddress = invoke(mapped, "getAddress");
+    assertThat(invoke(mappedAddress, "getStreet")).isEqualTo("Main St");
+    assertThat(invoke(mappedAddress, "getCity")).isNull();
+    assertThat(map.invoke(null, (Object) null)).isNull();
+    assertThat(new File(output, "net/kebernet/xddl/typed/v1_0/migration/OrderMapper.java").exists())
+        .isFalse();
+  }
+
+  private static Object invoke(Object target, String getter) throws ReflectiveOperationException {
+    return target.getClass().getMethod(getter).invoke(target);
+  }
 }
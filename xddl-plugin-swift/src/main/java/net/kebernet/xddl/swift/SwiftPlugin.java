@@ -26,6 +26,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -38,13 +39,14 @@ import net.kebernet.xddl.Loader;
 import net.kebernet.xddl.migrate.format.CaseFormat;
 import net.kebernet.xddl.model.*;
 import net.kebernet.xddl.plugins.Context;
-import net.kebernet.xddl.plugins.Plugin;
+import net.kebernet.xddl.plugins.PartitionedPlugin;
+import net.kebernet.xddl.plugins.WorkUnit;
 import net.kebernet.xddl.swift.model.Enum;
 import net.kebernet.xddl.swift.model.Struct;
 import net.kebernet.xddl.swift.model.SwiftType;
 import net.kebernet.xddl.util.LinesBuilder;
 
-public class SwiftPlugin implements Plugin {
+public class SwiftPlugin implements PartitionedPlugin {
 
   private static HashMap<CoreType, String> SWIFT_TYPES =
       new HashMap<CoreType, String>() {
@@ -72,51 +74,76 @@ public class SwiftPlugin implements Plugin {
     return "swift";
   }
 
+  /** One unit per structure and per enum, each writing its own Swift file. */
   @Override
-  public String generateArtifacts(Context context, File outputDirectory) throws IOException {
+  public java.util.List<WorkUnit> workUnits(Context context, File outputDirectory)
+      throws IOException {
     this.context = context;
     Specification spec = context.getSpecification();
-
-    Optional<SpecificationExtension> ext =
-        context.readPluginAs("swift", context.getSpecification(), SpecificationExtension.class);
-    String libraryName =
-        ext.map(SpecificationExtension::getLibraryName)
-            .orElse(
-                ofNullable(spec.getTitle())
-                    .map(CaseFormat.UPPER_WORDS.to(CaseFormat.UPPER_CAMEL))
-                    .orElse("xddl"));
-    String version =
-        ofNullable(spec.getVersion()).map(s -> "V" + s.replaceAll("\\.", "_")).orElse("");
-    String sourcePath = libraryName + version;
-
-    File sourcesDirectory = new File(outputDirectory, "Sources/" + sourcePath);
-
-    spec.structures().stream().map(this::doStructure).forEach(writeTypeFile(sourcesDirectory));
-
+    File sourcesDirectory = sourcesDirectory(outputDirectory);
+    // Created up front so the units don't race to create it.
+    if (!(sourcesDirectory.isDirectory() || sourcesDirectory.mkdirs())) {
+      throw new IOException("Couldn't create directory " + sourcesDirectory.getAbsolutePath());
+    }
+    Consumer<SwiftType> write = writeTypeFile(sourcesDirectory);
+    java.util.List<WorkUnit> units = new ArrayList<>();
+    spec.structures()
+        .forEach(
+            s -> units.add(new WorkUnit(s.getName(), () -> write.accept(doStructure(s)))));
     spec.types().stream()
         .filter(t -> !isNullOrEmpty(t.getAllowable()))
-        .map(
-            t -> {
-              Optional<TypeExtension> extension =
-                  context.readPluginAs("swift", t, TypeExtension.class);
-              return buildEnum(
-                  CaseFormat.LOWER_SNAKE.to(CaseFormat.UPPER_CAMEL).apply(t.getName()),
-                  t.getAllowable(),
-                  extension.orElse(null));
-            })
-        .forEach(writeTypeFile(sourcesDirectory));
+        .forEach(
+            t ->
+                units.add(
+                    new WorkUnit(
+                        t.getName(),
+                        () -> {
+                          Optional<TypeExtension> extension =
+                              context.readPluginAs("swift", t, TypeExtension.class);
+                          write.accept(
+                              buildEnum(
+                                  CaseFormat.LOWER_SNAKE
+                                      .to(CaseFormat.UPPER_CAMEL)
+                                      .apply(t.getName()),
+                                  t.getAllowable(),
+                                  extension.orElse(null)));
+                        })));
+    return units;
+  }
 
+  @Override
+  public String finish(Context context, File outputDirectory) throws IOException {
     try (OutputStreamWriter writer =
         new OutputStreamWriter(
-            new FileOutputStream(new File(sourcesDirectory, ".xddl.json")), Charsets.UTF_8)) {
-      Loader.mapper().writeValue(writer, spec);
+            new FileOutputStream(new File(sourcesDirectory(outputDirectory), ".xddl.json")),
+            Charsets.UTF_8)) {
+      Loader.mapper().writeValue(writer, context.getSpecification());
     }
 
-    createPackageStructure(libraryName, outputDirectory);
+    createPackageStructure(libraryName(), outputDirectory);
 
     return "OK";
   }
 
+  private String libraryName() {
+    Specification spec = context.getSpecification();
+    Optional<SpecificationExtension> ext =
+        context.readPluginAs("swift", spec, SpecificationExtension.class);
+    return ext.map(SpecificationExtension::getLibraryName)
+        .orElse(
+            ofNullable(spec.getTitle())
+                .map(CaseFormat.UPPER_WORDS.to(CaseFormat.UPPER_CAMEL))
+                .orElse("xddl"));
+  }
+
+  private File sourcesDirectory(File outputDirectory) {
+    String version =
+        ofNullable(context.getSpecification().getVersion())
+            .map(s -> "V" + s.replaceAll("\\.", "_"))
+            .orElse("");
+    return new File(outputDirectory, "Sources/" + libraryName() + version);
+  }
+
   private Consumer<SwiftType> writeTypeFile(File sourcesDirectory) {
     return struct -> {
       try {